@@ -0,0 +1,24 @@
+package sai.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes the results as json, so they can be compared between runs.
+ */
+public class BenchmarkRunner {
+
+    // Usage: BenchmarkRunner [result file] [benchmark regex]
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName())
+                .resultFormat(ResultFormatType.JSON)
+                .result(args.length > 0 ? args[0] : "benchmark-results.json")
+                .build();
+        new Runner(options).run();
+    }
+
+}
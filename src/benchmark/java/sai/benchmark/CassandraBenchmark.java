@@ -0,0 +1,54 @@
+package sai.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sai.column.CassandraExample;
+import sai.data.DataGenerator;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the tweet and timeline reads of the Cassandra example. There is no stand-in for Cassandra, so this one
+ * needs a node listening for Thrift clients on localhost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CassandraBenchmark {
+
+    // Number of users to generate, or a dataset file
+    @Param({"10000", "100000"})
+    public String dataset;
+
+    private CassandraExample example;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        out = SilentOutput.mute();
+        example = new CassandraExample(DataGenerator.load(dataset));
+        example.importUserData(100);
+        example.importFollowerData(100);
+        example.importTweetData(100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        example.close();
+        SilentOutput.restore(out);
+    }
+
+    @Benchmark
+    public void tweets() {
+        example.getTweetsForUser(1000);
+    }
+
+    @Benchmark
+    public void timeline() throws Exception {
+        example.getTimelineForUser(1000);
+    }
+
+}
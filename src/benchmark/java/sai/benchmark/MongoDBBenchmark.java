@@ -0,0 +1,68 @@
+package sai.benchmark;
+
+import com.mongodb.WriteConcern;
+import org.openjdk.jmh.annotations.*;
+import sai.data.DataGenerator;
+import sai.document.MongoDBExample;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the queries and aggregations of the MongoDB example. There is no stand-in for MongoDB, so this one needs a
+ * server on localhost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MongoDBBenchmark {
+
+    // Number of users to generate, or a dataset file
+    @Param({"10000", "100000"})
+    public String dataset;
+
+    private MongoDBExample example;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        out = SilentOutput.mute();
+        example = new MongoDBExample(DataGenerator.load(dataset));
+        example.clearUsers();
+        example.importUserDataBatched(1000, WriteConcern.ACKNOWLEDGED, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SilentOutput.restore(out);
+    }
+
+    @Benchmark
+    public void findByAge() {
+        example.findUsersOfAge(33);
+    }
+
+    @Benchmark
+    public void findByAgeGenderAndItem() {
+        example.findUsersOfAgeAndItem(33, 500, "male");
+    }
+
+    @Benchmark
+    public void findYoungerByGenderAndNotItem() {
+        example.findUsersYoungerOfAgeAndNotItem(33, 500, "male");
+    }
+
+    @Benchmark
+    public void aggregateAllItems() {
+        example.aggregateAllItems();
+    }
+
+    @Benchmark
+    public void aggregateTop100Items() {
+        example.aggregateTop100Items();
+    }
+
+}
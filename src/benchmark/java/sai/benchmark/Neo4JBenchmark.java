@@ -0,0 +1,92 @@
+package sai.benchmark;
+
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import sai.data.DataGenerator;
+import sai.graph.Neo4JExample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the friend queries and centrality calculation of the Neo4j example, on an embedded database in a temporary directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Neo4JBenchmark {
+
+    // Number of users to generate, or a dataset file
+    @Param({"10000", "100000"})
+    public String dataset;
+
+    private File storeDir;
+    private Neo4JExample example;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        out = SilentOutput.mute();
+        storeDir = File.createTempFile("neo4j-benchmark", "");
+        storeDir.delete();
+        example = new Neo4JExample(storeDir.getPath(), DataGenerator.load(dataset));
+        example.importUserData();
+        example.importRelationshipData();
+    }
+
+    // Let the centrality benchmarks load the projection and calculate the scores again
+    @Setup(Level.Iteration)
+    public void invalidate() {
+        example.invalidateFriendsProjection();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        example.closeGraph();
+        FileUtils.deleteRecursively(storeDir);
+        SilentOutput.restore(out);
+    }
+
+    @Benchmark
+    public void friends() {
+        example.findFriendsOfUser(1000);
+    }
+
+    @Benchmark
+    public void friendsOfFriends() {
+        example.findFriendsOfFriends(1000);
+    }
+
+    @Benchmark
+    public void friendsOfFriendsKHop() throws Exception {
+        example.findNeighborhood(1000, 2);
+    }
+
+    @Benchmark
+    public void friendSuggestions() {
+        example.findFriendSugguestions(1000);
+    }
+
+    @Benchmark
+    public void friendSuggestionsNative() {
+        example.findFriendSuggestions(1000, 10, Neo4JExample.SuggestionEngine.NATIVE);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public void centrality() {
+        example.calculateEigenVectorForUser(1000);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public void pageRank() {
+        example.calculatePageRankForUser(1000);
+    }
+
+}
@@ -0,0 +1,63 @@
+package sai.benchmark;
+
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import sai.data.DataGenerator;
+import sai.graph.Neo4JExample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the user lookups by age of the Neo4j example with the legacy index and the schema indexes, on an embedded
+ * database in a temporary directory. The import statistics printed by the example show the write overhead of each index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Neo4JIndexBenchmark {
+
+    // Number of users to generate, or a dataset file
+    @Param("1000000")
+    public String dataset;
+
+    @Param({"LEGACY", "SCHEMA"})
+    public Neo4JExample.UserIndex userIndex;
+
+    private File storeDir;
+    private Neo4JExample example;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        out = SilentOutput.mute();
+        storeDir = File.createTempFile("neo4j-benchmark", "");
+        storeDir.delete();
+        example = new Neo4JExample(storeDir.getPath(), DataGenerator.load(dataset));
+        example.setUserIndex(userIndex);
+        example.importUserData(10000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        example.closeGraph();
+        FileUtils.deleteRecursively(storeDir);
+        SilentOutput.restore(out);
+    }
+
+    @Benchmark
+    public void usersOfAge() {
+        example.findUsersOfAge(33);
+    }
+
+    @Benchmark
+    public void usersOfAgeBetween() {
+        example.findUsersOfAgeBetween(20, 29);
+    }
+
+}
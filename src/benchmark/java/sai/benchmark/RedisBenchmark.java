@@ -0,0 +1,76 @@
+package sai.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import sai.data.DataGenerator;
+import sai.keyvalue.RedisExample;
+import sai.keyvalue.RedisStandIn;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the score ingest, leaderboard refresh and rank queries of the Redis example, by default against the
+ * in-process stand-in so it runs without a Redis server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RedisBenchmark {
+
+    // A Redis host, or standin to start the in-process stand-in
+    @Param("standin")
+    public String host;
+
+    // Number of users to generate, or a dataset file
+    @Param({"10000", "100000"})
+    public String dataset;
+
+    private RedisStandIn standIn;
+    private RedisExample example;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        out = SilentOutput.mute();
+        if (host.equals("standin")) {
+            standIn = new RedisStandIn();
+            example = new RedisExample("localhost", standIn.getPort(), DataGenerator.load(dataset));
+        } else {
+            example = new RedisExample(host, DataGenerator.load(dataset));
+        }
+        example.importUserData();
+        example.importUserScores();
+        example.updateUserHighScores();
+        example.updateHighScores();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        example.close();
+        if (standIn != null) {
+            standIn.close();
+        }
+        SilentOutput.restore(out);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public void scoreIngest() {
+        example.importUserScores();
+    }
+
+    @Benchmark
+    public void leaderboardRefresh() {
+        example.updateHighScores();
+    }
+
+    @Benchmark
+    public void rankQueries() {
+        example.getScores();
+    }
+
+}
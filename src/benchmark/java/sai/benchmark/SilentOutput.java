@@ -0,0 +1,31 @@
+package sai.benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Discards what the examples print while they are being benchmarked.
+ */
+final class SilentOutput {
+
+    private SilentOutput() {
+    }
+
+    // Replace standard output by a stream that discards everything, returning the original one
+    static PrintStream mute() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        return out;
+    }
+
+    static void restore(PrintStream out) {
+        System.setOut(out);
+    }
+
+}
@@ -0,0 +1,162 @@
+package sai.workload;
+
+import sai.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a weighted mix of operations on a number of client threads, for a warmup period followed by a measured period,
+ * and reports the throughput and latency percentiles of each operation.
+ *
+ * In closed loop mode each thread issues its next request as soon as the previous one completes. In open loop mode the
+ * requests are scheduled at a constant total arrival rate, and latencies are measured from the moment a request was
+ * scheduled instead of the moment it was sent. A stalled store then shows up in the latencies of all requests that
+ * were due during the stall, instead of delaying them without being measured (coordinated omission).
+ */
+public class WorkloadDriver {
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<WorkloadOperation> operations = new ArrayList<WorkloadOperation>();
+    private final List<Integer> cumulativeWeights = new ArrayList<Integer>();
+    private int totalWeight = 0;
+
+    // Add an operation that is picked for a share of weight / total weight of the requests
+    public WorkloadDriver add(String name, int weight, WorkloadOperation operation) {
+        if (weight <= 0) {
+            return this;
+        }
+        totalWeight += weight;
+        names.add(name);
+        operations.add(operation);
+        cumulativeWeights.add(totalWeight);
+        return this;
+    }
+
+    // The results of one client thread
+    private static class ClientResults {
+
+        private final LatencyHistogram[] histograms;
+        private final long[] errors;
+
+        ClientResults(int numberOfOperations) {
+            histograms = new LatencyHistogram[numberOfOperations];
+            for (int i = 0; i < numberOfOperations; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            errors = new long[numberOfOperations];
+        }
+
+    }
+
+    // Run the workload on a number of threads, at a total rate in requests per second or in closed loop when the rate is zero
+    public void run(final int numberOfThreads, double rate, long warmupMillis, long durationMillis) throws InterruptedException, ExecutionException {
+        if (operations.isEmpty()) {
+            throw new IllegalStateException("No operations in the workload");
+        }
+        final long start = System.nanoTime();
+        final long measureFrom = start + warmupMillis * 1000000L;
+        final long end = measureFrom + durationMillis * 1000000L;
+        // Each thread handles an equal share of the arrivals, shifted so the threads do not all fire at once
+        final long interval = rate > 0 ? (long) (1000000000.0 * numberOfThreads / rate) : 0;
+        System.out.println("Running " + names + " on " + numberOfThreads + " threads " + (rate > 0 ? "at " + rate + " requests/s" : "in closed loop") +
+                ", " + warmupMillis + " ms warmup and " + durationMillis + " ms measured");
+
+        ExecutorService clients = Executors.newFixedThreadPool(numberOfThreads);
+        List<Future<ClientResults>> futures = new ArrayList<Future<ClientResults>>(numberOfThreads);
+        try {
+            for (int i = 0; i < numberOfThreads; i++) {
+                final int client = i;
+                futures.add(clients.submit(new Callable<ClientResults>() {
+                    public ClientResults call() {
+                        return runClient(new Random(client), start + interval * client / numberOfThreads, interval, measureFrom, end);
+                    }
+                }));
+            }
+            ClientResults total = new ClientResults(operations.size());
+            for (Future<ClientResults> future : futures) {
+                ClientResults results = future.get();
+                for (int i = 0; i < operations.size(); i++) {
+                    total.histograms[i].add(results.histograms[i]);
+                    total.errors[i] += results.errors[i];
+                }
+            }
+            printResults(total, durationMillis);
+        }
+        finally {
+            clients.shutdown();
+        }
+    }
+
+    private ClientResults runClient(Random random, long firstArrival, long interval, long measureFrom, long end) {
+        ClientResults results = new ClientResults(operations.size());
+        long nextArrival = firstArrival;
+        while (true) {
+            long scheduled;
+            if (interval > 0) {
+                scheduled = nextArrival;
+                nextArrival += interval;
+                long now;
+                while ((now = System.nanoTime()) < scheduled) {
+                    LockSupport.parkNanos(scheduled - now);
+                }
+            } else {
+                scheduled = System.nanoTime();
+            }
+            if (scheduled >= end) {
+                return results;
+            }
+            int operation = pick(random);
+            boolean failed = false;
+            try {
+                operations.get(operation).execute(random);
+            }
+            catch (Exception e) {
+                failed = true;
+                if (results.errors[operation] == 0 && scheduled >= measureFrom) {
+                    System.err.println(names.get(operation) + " failed: " + e);
+                }
+            }
+            if (scheduled >= measureFrom) {
+                results.histograms[operation].record(System.nanoTime() - scheduled);
+                if (failed) {
+                    results.errors[operation]++;
+                }
+            }
+        }
+    }
+
+    private int pick(Random random) {
+        int value = random.nextInt(totalWeight);
+        for (int i = 0; i < cumulativeWeights.size(); i++) {
+            if (value < cumulativeWeights.get(i)) {
+                return i;
+            }
+        }
+        return cumulativeWeights.size() - 1;
+    }
+
+    private void printResults(ClientResults total, long durationMillis) {
+        System.out.println(String.format(Locale.ROOT, "%-20s %10s %10s %8s %10s %10s %10s %10s %10s %10s",
+                "operation", "count", "ops/s", "errors", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms"));
+        long count = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            LatencyHistogram histogram = total.histograms[i];
+            count += histogram.getTotalCount();
+            System.out.println(String.format(Locale.ROOT, "%-20s %10d %10.1f %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f",
+                    names.get(i), histogram.getTotalCount(), histogram.getTotalCount() * 1000.0 / durationMillis, total.errors[i],
+                    histogram.getMean() / 1000000.0, histogram.getValueAtPercentile(50) / 1000000.0, histogram.getValueAtPercentile(90) / 1000000.0,
+                    histogram.getValueAtPercentile(99) / 1000000.0, histogram.getValueAtPercentile(99.9) / 1000000.0, histogram.getMaxValue() / 1000000.0));
+        }
+        System.out.println(String.format(Locale.ROOT, "Total throughput %.1f requests/s", count * 1000.0 / durationMillis));
+    }
+
+}
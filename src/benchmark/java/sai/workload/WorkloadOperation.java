@@ -0,0 +1,12 @@
+package sai.workload;
+
+import java.util.Random;
+
+/**
+ * A single request of a workload, executed concurrently by the client threads of the driver.
+ */
+public interface WorkloadOperation {
+
+    void execute(Random random) throws Exception;
+
+}
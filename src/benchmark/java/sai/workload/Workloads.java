@@ -0,0 +1,163 @@
+package sai.workload;
+
+import com.mongodb.WriteConcern;
+import org.neo4j.kernel.impl.util.FileUtils;
+import sai.column.CassandraExample;
+import sai.data.DataGenerator;
+import sai.data.Dataset;
+import sai.document.MongoDBExample;
+import sai.graph.Neo4JExample;
+import sai.keyvalue.RedisExample;
+import sai.keyvalue.RedisStandIn;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs a workload against one of the stores, using the operations of its example. Neo4j runs embedded in a temporary
+ * directory and Redis on the in-process stand-in, unless a Redis host is given. There are no stand-ins for MongoDB and
+ * Cassandra, so those have to run on localhost.
+ */
+public class Workloads {
+
+    // Usage: Workloads <redis[:host]|mongodb|neo4j|cassandra> [number of users or dataset file] [mix, e.g. timeline:90,tweet:10]
+    //        [threads] [requests/s, 0 for closed loop] [warmup seconds] [duration seconds]
+    public static void main(String[] args) throws Exception {
+        String store = args.length > 0 ? args[0] : "neo4j";
+        Dataset dataset = DataGenerator.load(args.length > 1 ? args[1] : "10000");
+        String mix = args.length > 2 ? args[2] : null;
+        int numberOfThreads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        double rate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        long warmupMillis = (args.length > 5 ? Long.parseLong(args[5]) : 10) * 1000;
+        long durationMillis = (args.length > 6 ? Long.parseLong(args[6]) : 60) * 1000;
+        final int numberOfUsers = dataset.getNumberOfUsers();
+        Map<String, WorkloadOperation> operations = new LinkedHashMap<String, WorkloadOperation>();
+
+        if (store.equals("redis") || store.startsWith("redis:")) {
+            RedisStandIn standIn = store.equals("redis") ? new RedisStandIn() : null;
+            final RedisExample example = standIn != null ?
+                    new RedisExample("localhost", standIn.getPort(), dataset) : new RedisExample(store.substring("redis:".length()), dataset);
+            example.importUserData();
+            example.importUserScores();
+            example.updateUserHighScores();
+            example.updateHighScores();
+            operations.put("user", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.readUser(random.nextInt(numberOfUsers));
+                }
+            });
+            operations.put("rank", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.getRank(random.nextInt(numberOfUsers));
+                }
+            });
+            operations.put("score", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.addScore(random.nextInt(numberOfUsers), random.nextInt(100000000));
+                }
+            });
+            try {
+                run(operations, mix != null ? mix : "user:60,rank:30,score:10", numberOfThreads, rate, warmupMillis, durationMillis);
+            }
+            finally {
+                example.close();
+                if (standIn != null) {
+                    standIn.close();
+                }
+            }
+        } else if (store.equals("mongodb")) {
+            final MongoDBExample example = new MongoDBExample(dataset);
+            example.clearUsers();
+            example.importUserDataBatched(1000, WriteConcern.ACKNOWLEDGED, false);
+            operations.put("age", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.countUsersOfAge(random.nextInt(90));
+                }
+            });
+            operations.put("item", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.addItem(random.nextInt(numberOfUsers), random.nextInt(1000), random.nextInt(5));
+                }
+            });
+            run(operations, mix != null ? mix : "age:90,item:10", numberOfThreads, rate, warmupMillis, durationMillis);
+        } else if (store.equals("neo4j")) {
+            File storeDir = File.createTempFile("neo4j-workload", "");
+            storeDir.delete();
+            try {
+                Neo4JExample.bulkImport(storeDir.getPath(), dataset);
+                final Neo4JExample example = new Neo4JExample(storeDir.getPath(), dataset);
+                operations.put("friends", new WorkloadOperation() {
+                    public void execute(Random random) {
+                        example.countFriends(random.nextInt(numberOfUsers));
+                    }
+                });
+                operations.put("suggestions", new WorkloadOperation() {
+                    public void execute(Random random) {
+                        example.suggestFriends(random.nextInt(numberOfUsers), 10, Neo4JExample.SuggestionEngine.NATIVE);
+                    }
+                });
+                operations.put("befriend", new WorkloadOperation() {
+                    public void execute(Random random) {
+                        // Two different users, a user can't befriend itself
+                        int userId = random.nextInt(numberOfUsers);
+                        example.befriend(userId, (userId + 1 + random.nextInt(numberOfUsers - 1)) % numberOfUsers);
+                    }
+                });
+                try {
+                    run(operations, mix != null ? mix : "friends:70,suggestions:20,befriend:10", numberOfThreads, rate, warmupMillis, durationMillis);
+                }
+                finally {
+                    example.closeGraph();
+                }
+            }
+            finally {
+                FileUtils.deleteRecursively(storeDir);
+            }
+        } else if (store.equals("cassandra")) {
+            final CassandraExample example = new CassandraExample(dataset);
+            example.importUserData(100);
+            example.importFollowerData(100);
+            example.importTweetData(100);
+            operations.put("timeline", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.getTimelinePage(random.nextInt(numberOfUsers), 20, null, null, null);
+                }
+            });
+            operations.put("tweets", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.getTweetsPage(random.nextInt(numberOfUsers), 20, null, null, null);
+                }
+            });
+            operations.put("tweet", new WorkloadOperation() {
+                public void execute(Random random) {
+                    example.postTweet(random.nextInt(numberOfUsers));
+                }
+            });
+            try {
+                run(operations, mix != null ? mix : "timeline:90,tweet:10", numberOfThreads, rate, warmupMillis, durationMillis);
+            }
+            finally {
+                example.close();
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown store " + store + ", expected redis, mongodb, neo4j or cassandra");
+        }
+    }
+
+    // Run a mix of operations, given as name:weight pairs separated by commas
+    private static void run(Map<String, WorkloadOperation> operations, String mix, int numberOfThreads, double rate, long warmupMillis, long durationMillis) throws Exception {
+        WorkloadDriver driver = new WorkloadDriver();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            WorkloadOperation operation = operations.get(parts[0]);
+            if (operation == null || parts.length != 2) {
+                throw new IllegalArgumentException("Unknown operation " + entry + ", expected name:weight with one of " + operations.keySet());
+            }
+            driver.add(parts[0], Integer.parseInt(parts[1]), operation);
+        }
+        driver.run(numberOfThreads, rate, warmupMillis, durationMillis);
+    }
+
+}
@@ -0,0 +1,146 @@
+package sai.column;
+
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import sai.metrics.LatencyHistogram;
+import sai.metrics.Metrics;
+import sai.metrics.OperationMetrics;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Groups rows into mutator batches of a maximum number of rows and bytes, and executes them on a pool of workers with a
+ * bounded number of batches in flight. Executed batches are collected as they finish, so a failed batch is rethrown by
+ * the next flush. The workers run until the writer is closed, or shut down when writing fails:
+ *
+ * try { ... writer.close(); } finally { writer.shutdown(); }
+ */
+public class BatchWriter {
+
+    private static final OperationMetrics EXECUTE_BATCH = Metrics.operation("cassandra.executeBatch");
+
+    private final Keyspace keyspace;
+    private final int batchSize;
+    private final int maxBatchBytes;
+    private final ExecutorService workers;
+    private final Semaphore inFlightBatches;
+    private final CompletionService<Void> executedBatches;
+    private final LatencyHistogram batchLatencies = new LatencyHistogram();
+    private int pendingBatches = 0;
+    private Mutator<String> mutator;
+    private int batchRows = 0;
+    private int batchBytes = 0;
+    private long rows = 0;
+
+    public BatchWriter(Keyspace keyspace, int batchSize, int maxBatchBytes, int numberOfThreads, int maxInFlightBatches) {
+        this.keyspace = keyspace;
+        this.batchSize = batchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.workers = Executors.newFixedThreadPool(numberOfThreads);
+        this.executedBatches = new ExecutorCompletionService<Void>(workers);
+        this.inFlightBatches = new Semaphore(maxInFlightBatches);
+        this.mutator = HFactory.createMutator(keyspace, StringSerializer.get());
+    }
+
+    // Add all columns of a row, a row is never split over multiple batches
+    public void addRow(String key, String columnFamily, List<? extends HColumn<?, ?>> columns) throws InterruptedException, ExecutionException {
+        int rowBytes = key.length();
+        for (HColumn<?, ?> column : columns) {
+            rowBytes += column.getNameBytes().remaining() + column.getValueBytes().remaining();
+        }
+        if (batchRows > 0 && batchBytes + rowBytes > maxBatchBytes) {
+            flush();
+        }
+        for (HColumn<?, ?> column : columns) {
+            mutator.addInsertion(key, columnFamily, column);
+        }
+        batchRows++;
+        batchBytes += rowBytes;
+        rows++;
+        if (batchRows >= batchSize) {
+            flush();
+        }
+    }
+
+    // Hand the current batch to the workers, waiting when too many batches are in flight already. Rethrows the failure
+    // of a batch that was executed in the meantime
+    public void flush() throws InterruptedException, ExecutionException {
+        if (batchRows == 0) {
+            return;
+        }
+        Future<Void> executedBatch;
+        while ((executedBatch = executedBatches.poll()) != null) {
+            pendingBatches--;
+            executedBatch.get();
+        }
+        final Mutator<String> batch = mutator;
+        final int bytes = batchBytes;
+        mutator = HFactory.createMutator(keyspace, StringSerializer.get());
+        batchRows = 0;
+        batchBytes = 0;
+        inFlightBatches.acquire();
+        pendingBatches++;
+        executedBatches.submit(new Callable<Void>() {
+            public Void call() {
+                try {
+                    return EXECUTE_BATCH.time(bytes, new OperationMetrics.Call<Void, RuntimeException>() {
+                        public Void call() {
+                            long start = System.nanoTime();
+                            batch.execute();
+                            long latency = System.nanoTime() - start;
+                            synchronized (batchLatencies) {
+                                batchLatencies.record(latency);
+                            }
+                            return null;
+                        }
+                    });
+                }
+                finally {
+                    inFlightBatches.release();
+                }
+            }
+        });
+    }
+
+    // Flush the last batch and wait until all batches have been executed
+    public void close() throws InterruptedException, ExecutionException {
+        try {
+            flush();
+            while (pendingBatches > 0) {
+                pendingBatches--;
+                executedBatches.take().get();
+            }
+        }
+        finally {
+            workers.shutdown();
+        }
+    }
+
+    // Stop the workers without executing the batches that are still queued, after a failure. Does nothing once closed.
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    // Batch latency in milliseconds at a certain percentile, between 0 and 100
+    public double getBatchLatency(double percentile) {
+        synchronized (batchLatencies) {
+            return batchLatencies.getValueAtPercentile(percentile) / 1000000.0;
+        }
+    }
+
+}
@@ -1,23 +1,42 @@
 package sai.column;
 
 import com.eaio.uuid.UUID;
+import me.prettyprint.cassandra.serializers.IntegerSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.cassandra.serializers.TimeUUIDSerializer;
+import me.prettyprint.cassandra.service.ColumnSliceIterator;
 import me.prettyprint.cassandra.service.ThriftKsDef;
-import me.prettyprint.cassandra.service.template.ColumnFamilyResult;
 import me.prettyprint.cassandra.service.template.ColumnFamilyTemplate;
-import me.prettyprint.cassandra.service.template.ColumnFamilyUpdater;
 import me.prettyprint.cassandra.service.template.ThriftColumnFamilyTemplate;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
 import me.prettyprint.hector.api.ddl.ComparatorType;
 import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
 import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.SliceQuery;
+import sai.data.DataGenerator;
+import sai.data.Dataset;
+import sai.metrics.Metrics;
+import sai.metrics.MetricsReporter;
+import sai.metrics.OperationMetrics;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: dsuvee
@@ -25,23 +44,46 @@ import java.util.Random;
 public class CassandraExample {
 
     private final Cluster cluster;
-    private ColumnFamilyTemplate<String, String> userTemplate;
+    private Keyspace keyspace;
     private ColumnFamilyTemplate<String, String> followerTemplate;
-    private ColumnFamilyTemplate<String, UUID> tweetTemplate;
-    private ColumnFamilyTemplate<String, UUID> timelineTemplate;
+    private ColumnFamilyTemplate<String, String> followingTemplate;
 
     private final String TWITTER_KEYSPACE = "twitter";
     private final String USERS_COLUMNFAMILY = "users";
     private final String TWEETS_COLUMNFAMILY = "tweets";
     private final String FOLLOWERS_COLUMNFAMILY = "followers";
+    private final String FOLLOWING_COLUMNFAMILY = "following";
     private final String TIMELINE_COLUMNFAMILY = "timeline";
+    private final String TIMELINE_BUCKETS_COLUMNFAMILY = "timeline_buckets";
     private final String[] genders = new String[] { "male", "female"};
-    private final int numberOfUsers = 10000;
-    private final int numberOfTweets = 10000;
+    private final Dataset dataset;
+    private final int numberOfUsers;
+    private final int numberOfTweets;
+    private final int numberOfWriterThreads = 4;
+    private final int maxBatchBytes = 512 * 1024;
+    private final int pageSize = 100;
+    private final long dayMillis = 24 * 60 * 60 * 1000L;
+    private final int timelineTtl = 7 * 24 * 60 * 60;
+    private final int numberOfReaderThreads = 4;
+    private final int multigetBatchSize = 100;
+    private final int followerPageSize = 1000;
+    private final int fanOutChunkSize = 10000;
+    private final int followingRangeSize = 10000;
+    private final MultigetReader reader;
 
-    public CassandraExample() {
+    private static final OperationMetrics READ_PAGE = Metrics.operation("cassandra.readPage");
+    private static final OperationMetrics POST_TWEET = Metrics.operation("cassandra.postTweet");
+    private boolean fanOutOnRead = false;
+    private boolean bucketedTimeline = false;
+    private int tweetAgeDays = 0;
+
+    public CassandraExample(Dataset dataset) {
+        this.dataset = dataset;
+        numberOfUsers = dataset.getNumberOfUsers();
+        numberOfTweets = dataset.getNumberOfTweets();
         cluster = HFactory.getOrCreateCluster("TestCluster", "localhost:9160");
         setupKeySpaces();
+        reader = new MultigetReader(keyspace, multigetBatchSize, numberOfReaderThreads);
     }
 
     public void setupKeySpaces() {
@@ -52,109 +94,524 @@ public class CassandraExample {
 
         ColumnFamilyDefinition userColumnFamily = HFactory.createColumnFamilyDefinition(TWITTER_KEYSPACE, USERS_COLUMNFAMILY, ComparatorType.ASCIITYPE);
         ColumnFamilyDefinition followerColumnFamily = HFactory.createColumnFamilyDefinition(TWITTER_KEYSPACE, FOLLOWERS_COLUMNFAMILY, ComparatorType.ASCIITYPE);
+        ColumnFamilyDefinition followingColumnFamily = HFactory.createColumnFamilyDefinition(TWITTER_KEYSPACE, FOLLOWING_COLUMNFAMILY, ComparatorType.ASCIITYPE);
         ColumnFamilyDefinition tweetsColumnFamily = HFactory.createColumnFamilyDefinition(TWITTER_KEYSPACE, TWEETS_COLUMNFAMILY, ComparatorType.TIMEUUIDTYPE);
         ColumnFamilyDefinition timelineColumnFamily = HFactory.createColumnFamilyDefinition(TWITTER_KEYSPACE, TIMELINE_COLUMNFAMILY, ComparatorType.TIMEUUIDTYPE);
-        KeyspaceDefinition twitterKeySpace = HFactory.createKeyspaceDefinition(TWITTER_KEYSPACE,ThriftKsDef.DEF_STRATEGY_CLASS, 1, Arrays.asList(userColumnFamily, followerColumnFamily, tweetsColumnFamily, timelineColumnFamily));
+        ColumnFamilyDefinition timelineBucketsColumnFamily = HFactory.createColumnFamilyDefinition(TWITTER_KEYSPACE, TIMELINE_BUCKETS_COLUMNFAMILY, ComparatorType.TIMEUUIDTYPE);
+        KeyspaceDefinition twitterKeySpace = HFactory.createKeyspaceDefinition(TWITTER_KEYSPACE,ThriftKsDef.DEF_STRATEGY_CLASS, 1, Arrays.asList(userColumnFamily, followerColumnFamily, followingColumnFamily, tweetsColumnFamily, timelineColumnFamily, timelineBucketsColumnFamily));
         cluster.addKeyspace(twitterKeySpace, true);
 
-        Keyspace keyspace = HFactory.createKeyspace(TWITTER_KEYSPACE, cluster);
+        keyspace = HFactory.createKeyspace(TWITTER_KEYSPACE, cluster);
 
-        userTemplate = new ThriftColumnFamilyTemplate<String, String>(keyspace, USERS_COLUMNFAMILY, StringSerializer.get(), StringSerializer.get());
         followerTemplate = new ThriftColumnFamilyTemplate<String, String>(keyspace, FOLLOWERS_COLUMNFAMILY, StringSerializer.get(), StringSerializer.get());
-        tweetTemplate = new ThriftColumnFamilyTemplate<String, UUID>(keyspace, TWEETS_COLUMNFAMILY, StringSerializer.get(), TimeUUIDSerializer.get());
-        timelineTemplate = new ThriftColumnFamilyTemplate<String, UUID>(keyspace, TIMELINE_COLUMNFAMILY, StringSerializer.get(), TimeUUIDSerializer.get());
+        followingTemplate = new ThriftColumnFamilyTemplate<String, String>(keyspace, FOLLOWING_COLUMNFAMILY, StringSerializer.get(), StringSerializer.get());
+    }
+
+    // Only write tweets to the tweets of their author, and merge the tweets of the followed users when reading a timeline
+    public void setFanOutOnRead(boolean fanOutOnRead) {
+        this.fanOutOnRead = fanOutOnRead;
+    }
+
+    // Write timelines into a row per user per day, with the timeline entries expiring after a week
+    public void setBucketedTimeline(boolean bucketedTimeline) {
+        this.bucketedTimeline = bucketedTimeline;
+    }
+
+    // Spread the creation time of imported tweets over a number of days in the past
+    public void setTweetAgeDays(int tweetAgeDays) {
+        this.tweetAgeDays = tweetAgeDays;
+    }
+
+    // The key of the timeline bucket of a user for the day of a certain moment in time, as the number of UTC days since the epoch
+    private String bucketKey(String userKey, long millis) {
+        return userKey + ":" + millis / dayMillis;
+    }
+
+    // The time a timeline entry for a tweet created at a certain moment still has to live, zero or less when already expired
+    private int remainingTimelineTtl(long millis, long now) {
+        return timelineTtl - (int) ((now - millis) / 1000);
+    }
+
+    private BatchWriter createBatchWriter(int batchSize) {
+        return createBatchWriter(batchSize, numberOfWriterThreads);
+    }
+
+    private BatchWriter createBatchWriter(int batchSize, int numberOfThreads) {
+        return new BatchWriter(keyspace, batchSize, maxBatchBytes, numberOfThreads, 2 * numberOfThreads);
+    }
+
+    private void printImportStatistics(String imported, int batchSize, BatchWriter writer, long start) {
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+        System.out.println("Imported " + imported + " with batch size " + batchSize + " in " + duration + " ms (" +
+                (writer.getRows() * 1000 / duration) + " rows/s, p99 batch latency " + writer.getBatchLatency(99) + " ms)");
     }
 
     // Import random user data
-    public void importUserData() {
+    public void importUserData(int batchSize) throws InterruptedException, ExecutionException {
         long start = System.currentTimeMillis();
-        Random r = new Random();
-        // Let's generate 10.000 random users and store their data in cassandra
-        for (int i = 0; i < numberOfUsers; i++) {
-            String userKey = "user" + ":" + i;
-            ColumnFamilyUpdater<String, String> updater = userTemplate.createUpdater(userKey);
-            updater.setString("name", "user" + i);
-            updater.setString("gender", genders[r.nextInt(genders.length)]);
-            updater.setInteger("age", r.nextInt(90));
-            userTemplate.update(updater);
+        BatchWriter writer = createBatchWriter(batchSize);
+        try {
+            // Let's store the generated users in cassandra
+            for (int i = 0; i < numberOfUsers; i++) {
+                String userKey = "user" + ":" + i;
+                List<HColumn<String, ?>> columns = new ArrayList<HColumn<String, ?>>(3);
+                columns.add(HFactory.createColumn("name", "user" + i, StringSerializer.get(), StringSerializer.get()));
+                columns.add(HFactory.createColumn("gender", genders[dataset.getGender(i)], StringSerializer.get(), StringSerializer.get()));
+                columns.add(HFactory.createColumn("age", dataset.getAge(i), StringSerializer.get(), IntegerSerializer.get()));
+                writer.addRow(userKey, USERS_COLUMNFAMILY, columns);
+            }
+            writer.close();
+        }
+        finally {
+            writer.shutdown();
         }
-        System.out.println("Imported users in " + (System.currentTimeMillis() - start) + " ms");
+        printImportStatistics("users", batchSize, writer, start);
     }
 
     // Create random followers
-    public void importFollowerData() {
+    public void importFollowerData(int batchSize) throws InterruptedException, ExecutionException {
         long start = System.currentTimeMillis();
-        Random r = new Random();
-        userTemplate.setBatched(true);
-        // Let's generate 10.000 random users and store their data in cassandra
-        for (int i = 0; i < numberOfUsers; i++) {
-            String userKey = "user" + ":" + i;
-            ColumnFamilyUpdater<String, String> updater = followerTemplate.createUpdater(userKey);
-            // Give each users a random number of followers between 0 and 10
-            int numberOfFollowers = r.nextInt(10);
-            for (int j = 0; j < numberOfFollowers; j++) {
-                updater.setString("user" + ":" + r.nextInt(numberOfUsers), "");
+        BatchWriter writer = createBatchWriter(batchSize);
+        try {
+            // Keep track of who each user follows as well, so timelines can be merged when reading them. The following
+            // columns are only collected for a range of users at a time, Cassandra merges the parts of a row written per range
+            Map<String, List<HColumn<String, String>>> following = new HashMap<String, List<HColumn<String, String>>>();
+            // Let's store the generated followers of each user in cassandra
+            for (int i = 0; i < numberOfUsers; i++) {
+                String userKey = "user" + ":" + i;
+                int numberOfFollowers = dataset.getNumberOfFollowers(i);
+                List<HColumn<String, String>> columns = new ArrayList<HColumn<String, String>>(numberOfFollowers);
+                for (int j = 0; j < numberOfFollowers; j++) {
+                    String followerKey = "user" + ":" + dataset.getFollower(i, j);
+                    columns.add(HFactory.createColumn(followerKey, "", StringSerializer.get(), StringSerializer.get()));
+                    List<HColumn<String, String>> followed = following.get(followerKey);
+                    if (followed == null) {
+                        followed = new ArrayList<HColumn<String, String>>();
+                        following.put(followerKey, followed);
+                    }
+                    followed.add(HFactory.createColumn(userKey, "", StringSerializer.get(), StringSerializer.get()));
+                }
+                if (!columns.isEmpty()) {
+                    writer.addRow(userKey, FOLLOWERS_COLUMNFAMILY, columns);
+                }
+                if ((i + 1) % followingRangeSize == 0) {
+                    writeFollowing(writer, following);
+                }
             }
-            followerTemplate.update(updater);
+            writeFollowing(writer, following);
+            writer.close();
+        }
+        finally {
+            writer.shutdown();
+        }
+        printImportStatistics("followers", batchSize, writer, start);
+    }
+
+    // Write the following columns collected so far and start collecting anew
+    private void writeFollowing(BatchWriter writer, Map<String, List<HColumn<String, String>>> following) throws InterruptedException, ExecutionException {
+        for (Map.Entry<String, List<HColumn<String, String>>> followed : following.entrySet()) {
+            writer.addRow(followed.getKey(), FOLLOWING_COLUMNFAMILY, followed.getValue());
         }
-        System.out.println("Imported followers in " + (System.currentTimeMillis() - start) + " ms");
+        following.clear();
     }
 
     // Create random tweets
-    public void importTweetData() {
+    public void importTweetData(int batchSize) throws InterruptedException, ExecutionException {
+        importTweetData(batchSize, numberOfWriterThreads);
+    }
+
+    // Create random tweets, fanning them out to the timelines of the followers on a number of threads
+    public void importTweetData(int batchSize, int numberOfThreads) throws InterruptedException, ExecutionException {
         long start = System.currentTimeMillis();
         Random r = new Random();
-        // Let's generate 10.000 random tweets
-        for (int i = 0; i < numberOfTweets; i++) {
-            // For a random user
-            String userKey = "user" + ":" + r.nextInt(10000);
-            // Create a random tweet
-            ColumnFamilyUpdater<String, UUID> updater = tweetTemplate.createUpdater(userKey);
-            UUID timeUuid = new UUID();
-            updater.setString(timeUuid, timeUuid.toString());
-            tweetTemplate.update(updater);
+        BatchWriter writer = createBatchWriter(batchSize, numberOfThreads);
+        try {
+            // The tweets of the current chunk by author, fanned out to the followers once the chunk is full
+            Map<String, List<HColumn<UUID, String>>> chunk = new LinkedHashMap<String, List<HColumn<UUID, String>>>();
+            int chunkTweets = 0;
+            // Let's create a tweet for each generated tweet author
+            for (int i = 0; i < numberOfTweets; i++) {
+                String userKey = "user" + ":" + dataset.getTweetAuthor(i);
+                // Create a random tweet
+                UUID timeUuid = tweetAgeDays > 0 ? TimeUUIDs.create(start - (long) (r.nextDouble() * tweetAgeDays * dayMillis), r) : new UUID();
+                HColumn<UUID, String> tweet = HFactory.createColumn(timeUuid, timeUuid.toString(), TimeUUIDSerializer.get(), StringSerializer.get());
+                writer.addRow(userKey, TWEETS_COLUMNFAMILY, Collections.singletonList(tweet));
+                if (fanOutOnRead) {
+                    continue;
+                }
 
-            // Get all followers of a certain user and add the tweet to their timeline
-            Collection<String> followers = followerTemplate.queryColumns(userKey).getColumnNames();
-            for (String follower : followers) {
-                ColumnFamilyUpdater<String, UUID> timelineTemplateUpdater = timelineTemplate.createUpdater(follower);
-                timelineTemplateUpdater.setString(timeUuid, timeUuid.toString());
-                timelineTemplate.update(timelineTemplateUpdater);
+                List<HColumn<UUID, String>> tweets = chunk.get(userKey);
+                if (tweets == null) {
+                    tweets = new ArrayList<HColumn<UUID, String>>();
+                    chunk.put(userKey, tweets);
+                }
+                tweets.add(tweet);
+                if (++chunkTweets == fanOutChunkSize) {
+                    fanOutTweets(writer, chunk);
+                    chunk.clear();
+                    chunkTweets = 0;
+                }
             }
+            fanOutTweets(writer, chunk);
+            writer.close();
+        }
+        finally {
+            writer.shutdown();
         }
-        System.out.println("Imported tweets in " + (System.currentTimeMillis() - start) + " ms");
+        printImportStatistics("tweets" + (fanOutOnRead ? " (fan-out on read)" : ""), batchSize, writer, start);
+    }
+
+    // Add the tweets of a number of authors to the timelines of their followers. The followers are read in bulk and
+    // consumed page by page as they arrive, so only the followers of a single sub-batch of authors are kept in memory
+    private void fanOutTweets(final BatchWriter writer, final Map<String, List<HColumn<UUID, String>>> tweetsByAuthor) throws InterruptedException, ExecutionException {
+        final long now = System.currentTimeMillis();
+        readFollowersForUsers(tweetsByAuthor.keySet(), new MultigetReader.RowCallback<String, String>() {
+            public void row(String key, List<HColumn<String, String>> followers) throws InterruptedException, ExecutionException {
+                // The timeline rows end up in multi-row batches that are executed by the writer threads
+                for (HColumn<UUID, String> tweet : tweetsByAuthor.get(key)) {
+                    if (bucketedTimeline) {
+                        // The day bucket and time to live are the same for every follower of the tweet
+                        long millis = TimeUUIDs.toMillis(tweet.getName());
+                        int ttl = remainingTimelineTtl(millis, now);
+                        if (ttl <= 0) {
+                            continue;
+                        }
+                        HColumn<UUID, String> entry = HFactory.createColumn(tweet.getName(), tweet.getValue(), ttl, TimeUUIDSerializer.get(), StringSerializer.get());
+                        for (HColumn<String, String> follower : followers) {
+                            writer.addRow(bucketKey(follower.getName(), millis), TIMELINE_BUCKETS_COLUMNFAMILY, Collections.singletonList(entry));
+                        }
+                    } else {
+                        for (HColumn<String, String> follower : followers) {
+                            writer.addRow(follower.getName(), TIMELINE_COLUMNFAMILY, Collections.singletonList(tweet));
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    private SliceQuery<String, UUID, String> createTweetSliceQuery(String columnFamily, String userKey) {
+        SliceQuery<String, UUID, String> query = HFactory.createSliceQuery(keyspace, StringSerializer.get(), TimeUUIDSerializer.get(), StringSerializer.get());
+        query.setColumnFamily(columnFamily).setKey(userKey);
+        return query;
+    }
+
+    // Print all tweets of a tweets or timeline row newest first, only keeping a single page of columns in memory
+    private void printTweets(String columnFamily, String userKey) {
+        ColumnSliceIterator<String, UUID, String> tweets =
+                new ColumnSliceIterator<String, UUID, String>(createTweetSliceQuery(columnFamily, userKey), null, (UUID) null, true, pageSize);
+        while (tweets.hasNext()) {
+            System.out.println(tweets.next().getName().toString());
+        }
+    }
+
+    // Read a page of a tweets or timeline row newest first, optionally limited to the tweets between two moments in time
+    private TimelinePage readTweetsPage(String columnFamily, String userKey, int pageSize, Long newestMillis, Long oldestMillis, String pageToken) {
+        final SliceQuery<String, UUID, String> query = createTweetSliceQuery(columnFamily, userKey);
+        UUID start = pageToken != null ? new UUID(pageToken) : newestMillis != null ? TimeUUIDs.endOf(newestMillis) : null;
+        UUID finish = oldestMillis != null ? TimeUUIDs.startOf(oldestMillis) : null;
+        // Ask for one more column than needed, it is where the next page starts
+        query.setRange(start, finish, true, pageSize + 1);
+        List<HColumn<UUID, String>> columns = READ_PAGE.time(new OperationMetrics.Call<List<HColumn<UUID, String>>, RuntimeException>() {
+            public List<HColumn<UUID, String>> call() {
+                return query.execute().get().getColumns();
+            }
+        });
+        List<UUID> tweets = new ArrayList<UUID>(Math.min(columns.size(), pageSize));
+        for (int i = 0; i < columns.size() && i < pageSize; i++) {
+            tweets.add(columns.get(i).getName());
+        }
+        String nextPageToken = columns.size() > pageSize ? columns.get(pageSize).getName().toString() : null;
+        return new TimelinePage(tweets, nextPageToken);
+    }
+
+    // Get a page of tweets for a particular user, pass the token of the previous page to load more
+    public TimelinePage getTweetsPage(int userId, int pageSize, Long newestMillis, Long oldestMillis, String pageToken) {
+        return readTweetsPage(TWEETS_COLUMNFAMILY, "user" + ":" + userId, pageSize, newestMillis, oldestMillis, pageToken);
+    }
+
+    // Get a page of the timeline for a particular user, pass the token of the previous page to load more
+    public TimelinePage getTimelinePage(int userId, int pageSize, Long newestMillis, Long oldestMillis, String pageToken) {
+        return readTweetsPage(TIMELINE_COLUMNFAMILY, "user" + ":" + userId, pageSize, newestMillis, oldestMillis, pageToken);
+    }
+
+    // Post a new tweet of a user and add it to the single row timelines of its followers, in one batch
+    public void postTweet(int userId) {
+        final String userKey = "user" + ":" + userId;
+        POST_TWEET.time(new OperationMetrics.Call<Void, RuntimeException>() {
+            public Void call() {
+                UUID timeUuid = new UUID();
+                HColumn<UUID, String> tweet = HFactory.createColumn(timeUuid, timeUuid.toString(), TimeUUIDSerializer.get(), StringSerializer.get());
+                Mutator<String> mutator = HFactory.createMutator(keyspace, StringSerializer.get());
+                mutator.addInsertion(userKey, TWEETS_COLUMNFAMILY, tweet);
+                if (!fanOutOnRead) {
+                    for (String follower : followerTemplate.queryColumns(userKey).getColumnNames()) {
+                        mutator.addInsertion(follower, TIMELINE_COLUMNFAMILY, tweet);
+                    }
+                }
+                mutator.execute();
+                return null;
+            }
+        });
+    }
+
+    // Read the newest tweets of each of a number of users, handing each row to the callback
+    public void readTweetsForUsers(Iterable<String> userKeys, int count, MultigetReader.RowCallback<UUID, String> callback) throws InterruptedException, ExecutionException {
+        reader.read(TWEETS_COLUMNFAMILY, userKeys, TimeUUIDSerializer.get(), StringSerializer.get(), null, null, true, count, callback);
+    }
+
+    // Read the newest entries of the single row timeline of each of a number of users, handing each row to the callback
+    public void readTimelinesForUsers(Iterable<String> userKeys, int count, MultigetReader.RowCallback<UUID, String> callback) throws InterruptedException, ExecutionException {
+        reader.read(TIMELINE_COLUMNFAMILY, userKeys, TimeUUIDSerializer.get(), StringSerializer.get(), null, null, true, count, callback);
+    }
+
+    // Read all followers of each of a number of users, handing them to the callback a page at a time. The multiget reads
+    // a single page of each row, a user with more followers is handed to the callback again for every further page
+    public void readFollowersForUsers(Iterable<String> userKeys, final MultigetReader.RowCallback<String, String> callback) throws InterruptedException, ExecutionException {
+        reader.read(FOLLOWERS_COLUMNFAMILY, userKeys, StringSerializer.get(), StringSerializer.get(), null, null, false, followerPageSize, new MultigetReader.RowCallback<String, String>() {
+            public void row(String key, List<HColumn<String, String>> columns) throws InterruptedException, ExecutionException {
+                callback.row(key, columns);
+                if (columns.size() == followerPageSize) {
+                    readRemainingFollowers(key, columns.get(columns.size() - 1).getName(), callback);
+                }
+            }
+        });
+    }
+
+    // Page through the rest of a wide followers row, starting after the last follower that was handed over already
+    private void readRemainingFollowers(String userKey, String last, MultigetReader.RowCallback<String, String> callback) throws InterruptedException, ExecutionException {
+        SliceQuery<String, String, String> query = HFactory.createSliceQuery(keyspace, StringSerializer.get(), StringSerializer.get(), StringSerializer.get());
+        query.setColumnFamily(FOLLOWERS_COLUMNFAMILY).setKey(userKey);
+        ColumnSliceIterator<String, String, String> followers = new ColumnSliceIterator<String, String, String>(query, last, (String) null, false, followerPageSize);
+        List<HColumn<String, String>> page = new ArrayList<HColumn<String, String>>(followerPageSize);
+        while (followers.hasNext()) {
+            HColumn<String, String> follower = followers.next();
+            // The start of a slice is inclusive
+            if (follower.getName().equals(last)) {
+                continue;
+            }
+            page.add(follower);
+            if (page.size() == followerPageSize) {
+                callback.row(userKey, page);
+                page = new ArrayList<HColumn<String, String>>(followerPageSize);
+            }
+        }
+        if (!page.isEmpty()) {
+            callback.row(userKey, page);
+        }
+    }
+
+    // Render the first page of the timeline of a range of users
+    public void getTimelinesForUsers(int fromUserId, int numberOfUsers) throws InterruptedException, ExecutionException {
+        long start = System.currentTimeMillis();
+        final int[] entries = new int[1];
+        readTimelinesForUsers(userKeys(fromUserId, numberOfUsers), pageSize, new MultigetReader.RowCallback<UUID, String>() {
+            public void row(String key, List<HColumn<UUID, String>> columns) {
+                entries[0] += columns.size();
+            }
+        });
+        System.out.println("Retrieved " + entries[0] + " timeline entries of " + numberOfUsers + " users in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Compare reading the tweets of a number of users one row at a time with reading them in bulk
+    public void benchmarkBulkReads(int numberOfKeys) throws InterruptedException, ExecutionException {
+        List<String> userKeys = userKeys(0, numberOfKeys);
+        long start = System.nanoTime();
+        for (String userKey : userKeys) {
+            readTweetsPage(TWEETS_COLUMNFAMILY, userKey, pageSize, null, null, null);
+        }
+        long singleReads = System.nanoTime() - start;
+        start = System.nanoTime();
+        readTweetsForUsers(userKeys, pageSize, new MultigetReader.RowCallback<UUID, String>() {
+            public void row(String key, List<HColumn<UUID, String>> columns) {
+            }
+        });
+        long bulkReads = System.nanoTime() - start;
+        System.out.println("Read tweets of " + numberOfKeys + " users at " + (numberOfKeys * 1000000000L / singleReads) + " keys/s (single row) and " +
+                (numberOfKeys * 1000000000L / bulkReads) + " keys/s (multiget)");
+    }
+
+    private List<String> userKeys(int fromUserId, int numberOfUsers) {
+        List<String> userKeys = new ArrayList<String>(numberOfUsers);
+        for (int i = fromUserId; i < fromUserId + numberOfUsers && i < this.numberOfUsers; i++) {
+            userKeys.add("user" + ":" + i);
+        }
+        return userKeys;
+    }
+
+    public void close() {
+        reader.close();
     }
 
     // Get tweets for a particular user
     public void getTweetsForUser(int userId) {
         long start = System.currentTimeMillis();
         String userKey = "user" + ":" + userId;
-        ColumnFamilyResult<String, UUID> tweets = tweetTemplate.queryColumns(userKey);
-        for (UUID uuid : tweets.getColumnNames()) {
-            System.out.println(uuid.toString());
-        }
+        printTweets(TWEETS_COLUMNFAMILY, userKey);
         System.out.println("Retrieved tweets in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     // Get timeline for a particular user
-    public void getTimelineForUser(int userId) {
+    public void getTimelineForUser(int userId) throws InterruptedException, ExecutionException {
         long start = System.currentTimeMillis();
         String userKey = "user" + ":" + userId;
-        ColumnFamilyResult<String, UUID> tweets = timelineTemplate.queryColumns(userKey);
-        for (UUID uuid : tweets.getColumnNames()) {
-            System.out.println(uuid.toString());
+        if (fanOutOnRead) {
+            for (UUID uuid : mergeTimeline(userKey, pageSize)) {
+                System.out.println(uuid.toString());
+            }
+        } else if (bucketedTimeline) {
+            for (UUID uuid : readBucketedTimeline(userKey, pageSize, System.currentTimeMillis())) {
+                System.out.println(uuid.toString());
+            }
+        } else {
+            printTweets(TIMELINE_COLUMNFAMILY, userKey);
         }
-        System.out.println("Retrieved timeline in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("Retrieved timeline" + (fanOutOnRead ? " (fan-out on read)" : "") + " in " + (System.currentTimeMillis() - start) + " ms");
     }
 
-    public static void main(String[] args) {
-        CassandraExample cassandraExample = new CassandraExample();
-        // Import user data
-        cassandraExample.importUserData();
-        cassandraExample.importFollowerData();
-        cassandraExample.importTweetData();
-        cassandraExample.getTweetsForUser(1000);
-        cassandraExample.getTimelineForUser(1000);
+    // Get the timeline for a particular user page by page, as a client loading more tweets would
+    public void getTimelinePages(int userId, int pageSize) {
+        long start = System.currentTimeMillis();
+        int numberOfPages = 0;
+        String pageToken = null;
+        do {
+            TimelinePage page = getTimelinePage(userId, pageSize, null, null, pageToken);
+            for (UUID uuid : page.getTweets()) {
+                System.out.println(TimeUUIDs.toMillis(uuid) + " " + uuid.toString());
+            }
+            pageToken = page.getNextPageToken();
+            numberOfPages++;
+        } while (pageToken != null);
+        System.out.println("Retrieved " + numberOfPages + " timeline pages in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Read the newest tweets of a bucketed timeline, stitching the daily buckets together newest first until the limit is reached
+    private List<UUID> readBucketedTimeline(String userKey, int limit, long newestMillis) {
+        List<UUID> timeline = new ArrayList<UUID>(limit);
+        // Buckets of days before that only contain expired entries
+        long oldestMillis = System.currentTimeMillis() - timelineTtl * 1000L - dayMillis;
+        for (long day = newestMillis; timeline.size() < limit && day >= oldestMillis; day -= dayMillis) {
+            SliceQuery<String, UUID, String> query = createTweetSliceQuery(TIMELINE_BUCKETS_COLUMNFAMILY, bucketKey(userKey, day));
+            query.setRange(day == newestMillis ? TimeUUIDs.endOf(newestMillis) : null, null, true, limit - timeline.size());
+            for (HColumn<UUID, String> column : query.execute().get().getColumns()) {
+                timeline.add(column.getName());
+            }
+        }
+        return timeline;
+    }
+
+    // Copy the timeline rows into daily buckets, giving each entry the time it has left to live
+    public void migrateTimelineToBuckets(int batchSize) throws InterruptedException, ExecutionException {
+        long start = System.currentTimeMillis();
+        BatchWriter writer = createBatchWriter(batchSize);
+        try {
+            for (int i = 0; i < numberOfUsers; i++) {
+                String userKey = "user" + ":" + i;
+                Map<String, List<HColumn<UUID, String>>> buckets = new LinkedHashMap<String, List<HColumn<UUID, String>>>();
+                ColumnSliceIterator<String, UUID, String> tweets =
+                        new ColumnSliceIterator<String, UUID, String>(createTweetSliceQuery(TIMELINE_COLUMNFAMILY, userKey), null, (UUID) null, false, pageSize);
+                while (tweets.hasNext()) {
+                    HColumn<UUID, String> tweet = tweets.next();
+                    long millis = TimeUUIDs.toMillis(tweet.getName());
+                    int ttl = remainingTimelineTtl(millis, start);
+                    if (ttl <= 0) {
+                        continue;
+                    }
+                    String bucketKey = bucketKey(userKey, millis);
+                    List<HColumn<UUID, String>> bucket = buckets.get(bucketKey);
+                    if (bucket == null) {
+                        bucket = new ArrayList<HColumn<UUID, String>>();
+                        buckets.put(bucketKey, bucket);
+                    }
+                    bucket.add(HFactory.createColumn(tweet.getName(), tweet.getValue(), ttl, TimeUUIDSerializer.get(), StringSerializer.get()));
+                }
+                for (Map.Entry<String, List<HColumn<UUID, String>>> bucket : buckets.entrySet()) {
+                    writer.addRow(bucket.getKey(), TIMELINE_BUCKETS_COLUMNFAMILY, bucket.getValue());
+                }
+            }
+            writer.close();
+        }
+        finally {
+            writer.shutdown();
+        }
+        printImportStatistics("timeline buckets", batchSize, writer, start);
+    }
+
+    // Compare reading the newest tweets up to a certain age from the single timeline rows and from the bucketed timelines
+    public void benchmarkTimelineReads(int limit, int maxAgeDays) {
+        int numberOfReads = 100;
+        for (int age = 0; age <= maxAgeDays; age++) {
+            long newestMillis = System.currentTimeMillis() - age * dayMillis;
+            long start = System.nanoTime();
+            for (int i = 0; i < numberOfReads; i++) {
+                readTweetsPage(TIMELINE_COLUMNFAMILY, "user" + ":" + i, limit, newestMillis, null, null);
+            }
+            long rowReads = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < numberOfReads; i++) {
+                readBucketedTimeline("user" + ":" + i, limit, newestMillis);
+            }
+            long bucketReads = System.nanoTime() - start;
+            System.out.println("Read timelines of " + age + " days old in " + (rowReads / (numberOfReads * 1000000.0)) + " ms (single row) and " +
+                    (bucketReads / (numberOfReads * 1000000.0)) + " ms (buckets) on average");
+        }
+    }
+
+    // Merge the newest tweets of all users followed by a user into the first page of a timeline, newest first like a
+    // timeline page. Only the newest tweets of each followed user are read, so the page size bounds the memory used
+    private List<UUID> mergeTimeline(String userKey, final int pageSize) throws InterruptedException, ExecutionException {
+        Collection<String> followed = followingTemplate.queryColumns(userKey).getColumnNames();
+        // The newest tweets so far, with the oldest of them at the head
+        final PriorityQueue<UUID> newest = new PriorityQueue<UUID>(pageSize + 1, TimeUUIDs.BY_TIME);
+        readTweetsForUsers(followed, pageSize, new MultigetReader.RowCallback<UUID, String>() {
+            public void row(String key, List<HColumn<UUID, String>> columns) {
+                for (HColumn<UUID, String> column : columns) {
+                    newest.add(column.getName());
+                    // The columns come newest first, so once one of them falls off the rest of the row is older still
+                    if (newest.size() > pageSize && newest.poll() == column.getName()) {
+                        break;
+                    }
+                }
+            }
+        });
+        List<UUID> timeline = new ArrayList<UUID>(newest);
+        Collections.sort(timeline, Collections.reverseOrder(TimeUUIDs.BY_TIME));
+        return timeline;
+    }
+
+    // Usage: CassandraExample [number of users or dataset file]
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        CassandraExample cassandraExample = new CassandraExample(DataGenerator.load(args.length > 0 ? args[0] : "10000"));
+        MetricsReporter reporter = new MetricsReporter(new File("metrics"), 10, TimeUnit.SECONDS);
+        try {
+            // Import user data, comparing a number of batch sizes
+            for (int batchSize : new int[] { 1, 10, 100, 1000 }) {
+                cassandraExample.importUserData(batchSize);
+            }
+            cassandraExample.importFollowerData(100);
+            cassandraExample.importTweetData(100);
+            cassandraExample.getTweetsForUser(1000);
+            cassandraExample.getTimelineForUser(1000);
+            cassandraExample.getTimelinePages(1000, 10);
+            cassandraExample.getTimelinesForUsers(1000, 100);
+            cassandraExample.benchmarkBulkReads(1000);
+            // Compare with merging the timeline when reading it
+            cassandraExample.setFanOutOnRead(true);
+            cassandraExample.importTweetData(100);
+            cassandraExample.getTimelineForUser(1000);
+            cassandraExample.setFanOutOnRead(false);
+            // Import tweets of the past week and move the timelines into daily buckets
+            cassandraExample.setTweetAgeDays(7);
+            cassandraExample.importTweetData(100);
+            cassandraExample.migrateTimelineToBuckets(100);
+            cassandraExample.benchmarkTimelineReads(10, 7);
+            cassandraExample.setBucketedTimeline(true);
+            cassandraExample.getTimelineForUser(1000);
+        }
+        finally {
+            cassandraExample.close();
+            reporter.close();
+        }
     }
 
 }
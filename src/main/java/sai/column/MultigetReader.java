@@ -0,0 +1,100 @@
+package sai.column;
+
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
+import sai.metrics.Metrics;
+import sai.metrics.OperationMetrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reads a slice of the same range from many rows with multiget slice queries. The keys are split in sub-batches that are
+ * read in parallel on a pool of readers, with a bounded number of sub-batches in flight. The rows are handed to a
+ * callback on the calling thread as soon as their sub-batch is read, so they are never all kept in memory.
+ */
+public class MultigetReader {
+
+    private static final OperationMetrics MULTIGET = Metrics.operation("cassandra.multiget");
+
+    private final Keyspace keyspace;
+    private final int subBatchSize;
+    private final int maxInFlight;
+    private final ExecutorService readers;
+
+    // Receives the rows of a bulk read one by one, rows without columns included
+    public interface RowCallback<N, V> {
+        void row(String key, List<HColumn<N, V>> columns) throws InterruptedException, ExecutionException;
+    }
+
+    public MultigetReader(Keyspace keyspace, int subBatchSize, int numberOfThreads) {
+        this.keyspace = keyspace;
+        this.subBatchSize = subBatchSize;
+        this.maxInFlight = 2 * numberOfThreads;
+        // Daemon readers, so a reader that is never closed does not keep the JVM alive
+        this.readers = Executors.newFixedThreadPool(numberOfThreads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "multiget-reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Read the columns between start and finish, at most count of them, of each of the keys
+    public <N, V> void read(String columnFamily, Iterable<String> keys, final Serializer<N> nameSerializer, final Serializer<V> valueSerializer,
+                            final N start, final N finish, final boolean reversed, final int count, RowCallback<N, V> callback) throws InterruptedException, ExecutionException {
+        CompletionService<Rows<String, N, V>> subBatches = new ExecutorCompletionService<Rows<String, N, V>>(readers);
+        Iterator<String> it = keys.iterator();
+        int inFlight = 0;
+        while (it.hasNext() || inFlight > 0) {
+            // Keep the readers busy, but do not queue more sub-batches than can be handled soon
+            while (it.hasNext() && inFlight < maxInFlight) {
+                final MultigetSliceQuery<String, N, V> query = HFactory.createMultigetSliceQuery(keyspace, StringSerializer.get(), nameSerializer, valueSerializer);
+                query.setColumnFamily(columnFamily).setKeys(nextSubBatch(it)).setRange(start, finish, reversed, count);
+                subBatches.submit(new Callable<Rows<String, N, V>>() {
+                    public Rows<String, N, V> call() {
+                        return MULTIGET.time(new OperationMetrics.Call<Rows<String, N, V>, RuntimeException>() {
+                            public Rows<String, N, V> call() {
+                                return query.execute().get();
+                            }
+                        });
+                    }
+                });
+                inFlight++;
+            }
+            Rows<String, N, V> rows = subBatches.take().get();
+            inFlight--;
+            for (Row<String, N, V> row : rows) {
+                callback.row(row.getKey(), row.getColumnSlice().getColumns());
+            }
+        }
+    }
+
+    private List<String> nextSubBatch(Iterator<String> keys) {
+        List<String> subBatch = new ArrayList<String>(subBatchSize);
+        while (keys.hasNext() && subBatch.size() < subBatchSize) {
+            subBatch.add(keys.next());
+        }
+        return subBatch;
+    }
+
+    public void close() {
+        readers.shutdown();
+    }
+
+}
@@ -0,0 +1,76 @@
+package sai.column;
+
+import com.eaio.uuid.UUID;
+
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Helpers for time based uuids, ordering them the same way as the TimeUUIDType comparator of Cassandra.
+ */
+public final class TimeUUIDs {
+
+    // Orders time based uuids on their timestamp, oldest first
+    public static final Comparator<UUID> BY_TIME = new Comparator<UUID>() {
+        public int compare(UUID o1, UUID o2) {
+            int result = Long.compare(timestamp(o1), timestamp(o2));
+            return result != 0 ? result : compareSignedBytes(o1.getClockSeqAndNode(), o2.getClockSeqAndNode());
+        }
+    };
+
+    // The start of the unix epoch, in 100 nanosecond intervals since the start of the gregorian calendar
+    private static final long EPOCH_OFFSET = 0x01B21DD213814000L;
+
+    private TimeUUIDs() {
+    }
+
+    // The time in milliseconds since the unix epoch at which a time based uuid was created
+    public static long toMillis(UUID uuid) {
+        return (timestamp(uuid) - EPOCH_OFFSET) / 10000;
+    }
+
+    // The lowest time based uuid within a certain millisecond, ties on the timestamp are broken on the signed bytes
+    public static UUID startOf(long millis) {
+        return new UUID(time(millis * 10000 + EPOCH_OFFSET), 0x8080808080808080L);
+    }
+
+    // The highest time based uuid within a certain millisecond
+    public static UUID endOf(long millis) {
+        return new UUID(time(millis * 10000 + EPOCH_OFFSET + 9999), 0x7f7f7f7f7f7f7f7fL);
+    }
+
+    // A random time based uuid within a certain millisecond
+    public static UUID create(long millis, Random r) {
+        long clockSeqAndNode = (r.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(time(millis * 10000 + EPOCH_OFFSET + r.nextInt(10000)), clockSeqAndNode);
+    }
+
+    // The time field of a version 1 uuid for a certain timestamp
+    private static long time(long timestamp) {
+        long timeLow = timestamp & 0xFFFFFFFFL;
+        long timeMid = (timestamp >>> 32) & 0xFFFFL;
+        long timeHigh = (timestamp >>> 48) & 0x0FFFL;
+        return (timeLow << 32) | (timeMid << 16) | 0x1000L | timeHigh;
+    }
+
+    // Compare the bytes of two longs as signed bytes, most significant first, like Cassandra compares the bytes of uuids
+    private static int compareSignedBytes(long value1, long value2) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            int result = Byte.compare((byte) (value1 >>> shift), (byte) (value2 >>> shift));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    // The timestamp of a time based uuid, in 100 nanosecond intervals since the start of the gregorian calendar
+    public static long timestamp(UUID uuid) {
+        long time = uuid.getTime();
+        long timeLow = time >>> 32;
+        long timeMid = (time >>> 16) & 0xFFFFL;
+        long timeHigh = time & 0x0FFFL;
+        return (timeHigh << 48) | (timeMid << 32) | timeLow;
+    }
+
+}
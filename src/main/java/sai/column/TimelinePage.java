@@ -0,0 +1,29 @@
+package sai.column;
+
+import com.eaio.uuid.UUID;
+
+import java.util.List;
+
+/**
+ * A page of tweets read from a tweets or timeline row, newest first, with the token to load the next page.
+ */
+public class TimelinePage {
+
+    private final List<UUID> tweets;
+    private final String nextPageToken;
+
+    public TimelinePage(List<UUID> tweets, String nextPageToken) {
+        this.tweets = tweets;
+        this.nextPageToken = nextPageToken;
+    }
+
+    public List<UUID> getTweets() {
+        return tweets;
+    }
+
+    // Token to pass when reading the next page, null when this is the last page
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+}
@@ -0,0 +1,198 @@
+package sai.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates a deterministic synthetic dataset for the examples. The work is split in fixed size chunks that each get their
+ * own random generator, so the same seed results in the same dataset regardless of the number of threads.
+ */
+public class DataGenerator {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final long DEFAULT_SEED = 42;
+    // Some virtual machines reserve a few header words in an array
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final long seed;
+    private final int numberOfThreads;
+
+    // Generates the part of the data between two indexes
+    private interface ChunkTask {
+        void run(SplittableRandom r, long from, long to);
+    }
+
+    public DataGenerator(long seed) {
+        this(seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DataGenerator(long seed, int numberOfThreads) {
+        this.seed = seed;
+        this.numberOfThreads = numberOfThreads;
+    }
+
+    // Generate a dataset with the same proportions as the examples: 0 to 9 followers as in the Cassandra example, 10 friends
+    // as in the Neo4j example, 1 tweet and 100 scores per user on average
+    public Dataset generate(int numberOfUsers) throws IOException, InterruptedException, ExecutionException {
+        return generate(numberOfUsers, 10, 10, numberOfUsers, 100L * numberOfUsers);
+    }
+
+    // Each user gets fewer than maxFollowers followers and between 0 and twice averageFriends friends. The scores are
+    // written to memory mapped temporary files, so their number is only limited by the disk
+    public Dataset generate(int numberOfUsers, final int maxFollowers, final int averageFriends, int numberOfTweets, long numberOfScores) throws IOException, InterruptedException, ExecutionException {
+        long start = System.currentTimeMillis();
+        final int users = numberOfUsers;
+        final int[] ages = new int[numberOfUsers];
+        final int[] genders = new int[numberOfUsers];
+        final int[] itemOffsets = new int[numberOfUsers + 1];
+        final int[] followerOffsets = new int[numberOfUsers + 1];
+        final int[] friendOffsets = new int[numberOfUsers + 1];
+        final int[] tweetAuthors = new int[numberOfTweets];
+        final MappedIntArray scoreUsers = MappedIntArray.create(numberOfScores);
+        final MappedIntArray scores = MappedIntArray.create(numberOfScores);
+        // All random generators are split off in a fixed order, before any of the chunks runs
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] userRandoms = split(root, numberOfUsers);
+        SplittableRandom[] itemRandoms = split(root, numberOfUsers);
+        SplittableRandom[] followerRandoms = split(root, numberOfUsers);
+        SplittableRandom[] friendRandoms = split(root, numberOfUsers);
+        SplittableRandom[] tweetRandoms = split(root, numberOfTweets);
+        SplittableRandom[] scoreRandoms = split(root, numberOfScores);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            // Generate the users and the number of items, followers and friends of each user
+            runChunks(executor, userRandoms, numberOfUsers, new ChunkTask() {
+                public void run(SplittableRandom r, long from, long to) {
+                    for (int i = (int) from; i < to; i++) {
+                        ages[i] = r.nextInt(90);
+                        genders[i] = r.nextInt(2);
+                        itemOffsets[i + 1] = r.nextInt(100);
+                        followerOffsets[i + 1] = r.nextInt(maxFollowers);
+                        friendOffsets[i + 1] = r.nextInt(2 * averageFriends + 1);
+                    }
+                }
+            });
+            toOffsets(itemOffsets);
+            toOffsets(followerOffsets);
+            toOffsets(friendOffsets);
+
+            final int[] itemIds = new int[itemOffsets[numberOfUsers]];
+            final int[] itemAmounts = new int[itemOffsets[numberOfUsers]];
+            runChunks(executor, itemRandoms, numberOfUsers, new ChunkTask() {
+                public void run(SplittableRandom r, long from, long to) {
+                    for (int i = itemOffsets[(int) from]; i < itemOffsets[(int) to]; i++) {
+                        itemIds[i] = r.nextInt(1000);
+                        itemAmounts[i] = r.nextInt(5);
+                    }
+                }
+            });
+
+            final int[] followers = new int[followerOffsets[numberOfUsers]];
+            runChunks(executor, followerRandoms, numberOfUsers, new ChunkTask() {
+                public void run(SplittableRandom r, long from, long to) {
+                    for (int i = followerOffsets[(int) from]; i < followerOffsets[(int) to]; i++) {
+                        followers[i] = r.nextInt(users);
+                    }
+                }
+            });
+
+            final int[] friends = new int[friendOffsets[numberOfUsers]];
+            runChunks(executor, friendRandoms, numberOfUsers, new ChunkTask() {
+                public void run(SplittableRandom r, long from, long to) {
+                    for (int i = friendOffsets[(int) from]; i < friendOffsets[(int) to]; i++) {
+                        friends[i] = r.nextInt(users);
+                    }
+                }
+            });
+
+            runChunks(executor, tweetRandoms, numberOfTweets, new ChunkTask() {
+                public void run(SplittableRandom r, long from, long to) {
+                    for (int i = (int) from; i < to; i++) {
+                        tweetAuthors[i] = r.nextInt(users);
+                    }
+                }
+            });
+
+            runChunks(executor, scoreRandoms, numberOfScores, new ChunkTask() {
+                public void run(SplittableRandom r, long from, long to) {
+                    for (long i = from; i < to; i++) {
+                        scoreUsers.set(i, r.nextInt(users));
+                        scores.set(i, r.nextInt(100000000));
+                    }
+                }
+            });
+
+            System.out.println("Generated dataset of " + numberOfUsers + " users in " + (System.currentTimeMillis() - start) + " ms");
+            return new Dataset(ages, genders, itemOffsets, itemIds, itemAmounts, followerOffsets, followers, friendOffsets, friends, tweetAuthors,
+                    scoreUsers, scores);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    // One random generator per chunk of a certain number of elements
+    private SplittableRandom[] split(SplittableRandom root, long numberOfElements) {
+        SplittableRandom[] randoms = new SplittableRandom[(int) ((numberOfElements + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+        for (int i = 0; i < randoms.length; i++) {
+            randoms[i] = root.split();
+        }
+        return randoms;
+    }
+
+    private void runChunks(ExecutorService executor, final SplittableRandom[] randoms, final long numberOfElements, final ChunkTask task) throws InterruptedException, ExecutionException {
+        List<Future<?>> chunks = new ArrayList<Future<?>>(randoms.length);
+        for (int i = 0; i < randoms.length; i++) {
+            final int chunk = i;
+            chunks.add(executor.submit(new Runnable() {
+                public void run() {
+                    task.run(randoms[chunk], (long) chunk * CHUNK_SIZE, Math.min((long) (chunk + 1) * CHUNK_SIZE, numberOfElements));
+                }
+            }));
+        }
+        for (Future<?> chunk : chunks) {
+            chunk.get();
+        }
+    }
+
+    // Turn the counts stored at index i + 1 into the offsets of each user
+    private void toOffsets(int[] offsets) {
+        long total = 0;
+        for (int i = 1; i < offsets.length; i++) {
+            total += offsets[i];
+            if (total > MAX_ARRAY_LENGTH) {
+                throw new IllegalArgumentException("Dataset too large, more than " + MAX_ARRAY_LENGTH + " entries");
+            }
+            offsets[i] = (int) total;
+        }
+    }
+
+    // Generate a dataset for a number of users, or read it from a file written before
+    public static Dataset load(String argument) throws IOException, InterruptedException, ExecutionException {
+        if (argument.matches("\\d+")) {
+            return new DataGenerator(DEFAULT_SEED).generate(Integer.parseInt(argument));
+        }
+        long start = System.currentTimeMillis();
+        Dataset dataset = Dataset.read(new File(argument));
+        System.out.println("Read dataset of " + dataset.getNumberOfUsers() + " users in " + (System.currentTimeMillis() - start) + " ms");
+        return dataset;
+    }
+
+    // Usage: DataGenerator <number of users> <file> [seed]
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        Dataset dataset = new DataGenerator(seed).generate(Integer.parseInt(args[0]));
+        long start = System.currentTimeMillis();
+        dataset.write(new File(args[1]));
+        System.out.println("Written dataset in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+}
@@ -0,0 +1,243 @@
+package sai.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Synthetic users, items, follower edges, friend edges, tweets and scores, stored as primitive arrays. Per user lists (items,
+ * followers and friends) are stored as offsets into a shared array: the entries of user i are found between offsets[i] and
+ * offsets[i + 1]. The scores, a hundred per user, are kept in memory mapped files instead of on the heap, and are indexed by
+ * a long.
+ */
+public class Dataset {
+
+    // Written in front of the arrays, so files of an older layout are not read as garbage
+    private static final int FORMAT_VERSION = 3;
+    // Files are mapped in windows, a single mapping is limited to 2 GB
+    static final long WINDOW_SIZE = 1L << 30;
+
+    private final int[] ages;
+    private final int[] genders;
+    private final int[] itemOffsets;
+    private final int[] itemIds;
+    private final int[] itemAmounts;
+    private final int[] followerOffsets;
+    private final int[] followers;
+    private final int[] friendOffsets;
+    private final int[] friends;
+    private final int[] tweetAuthors;
+    private final MappedIntArray scoreUsers;
+    private final MappedIntArray scores;
+
+    Dataset(int[] ages, int[] genders, int[] itemOffsets, int[] itemIds, int[] itemAmounts, int[] followerOffsets, int[] followers,
+            int[] friendOffsets, int[] friends, int[] tweetAuthors, MappedIntArray scoreUsers, MappedIntArray scores) {
+        this.ages = ages;
+        this.genders = genders;
+        this.itemOffsets = itemOffsets;
+        this.itemIds = itemIds;
+        this.itemAmounts = itemAmounts;
+        this.followerOffsets = followerOffsets;
+        this.followers = followers;
+        this.friendOffsets = friendOffsets;
+        this.friends = friends;
+        this.tweetAuthors = tweetAuthors;
+        this.scoreUsers = scoreUsers;
+        this.scores = scores;
+    }
+
+    public int getNumberOfUsers() {
+        return ages.length;
+    }
+
+    public int getAge(int userId) {
+        return ages[userId];
+    }
+
+    // Index of the gender of a user, 0 or 1
+    public int getGender(int userId) {
+        return genders[userId];
+    }
+
+    public int getNumberOfItems(int userId) {
+        return itemOffsets[userId + 1] - itemOffsets[userId];
+    }
+
+    // Id of the n-th item of a user
+    public int getItemId(int userId, int n) {
+        return itemIds[itemOffsets[userId] + n];
+    }
+
+    // Amount bought of the n-th item of a user
+    public int getItemAmount(int userId, int n) {
+        return itemAmounts[itemOffsets[userId] + n];
+    }
+
+    public int getNumberOfFollowers(int userId) {
+        return followerOffsets[userId + 1] - followerOffsets[userId];
+    }
+
+    // Id of the n-th follower of a user
+    public int getFollower(int userId, int n) {
+        return followers[followerOffsets[userId] + n];
+    }
+
+    // Total number of follower edges
+    public int getNumberOfFollowerEdges() {
+        return followers.length;
+    }
+
+    public int getNumberOfFriends(int userId) {
+        return friendOffsets[userId + 1] - friendOffsets[userId];
+    }
+
+    // Id of the n-th friend of a user
+    public int getFriend(int userId, int n) {
+        return friends[friendOffsets[userId] + n];
+    }
+
+    // Total number of friend edges
+    public int getNumberOfFriendEdges() {
+        return friends.length;
+    }
+
+    public int getNumberOfTweets() {
+        return tweetAuthors.length;
+    }
+
+    public int getTweetAuthor(int tweetId) {
+        return tweetAuthors[tweetId];
+    }
+
+    public long getNumberOfScores() {
+        return scores.length();
+    }
+
+    public int getScoreUser(long scoreId) {
+        return scoreUsers.get(scoreId);
+    }
+
+    public int getScore(long scoreId) {
+        return scores.get(scoreId);
+    }
+
+    // Stream the dataset to a file, each array prefixed with its length, a long for the score arrays
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            for (int[] array : arrays()) {
+                out.writeInt(array.length);
+                for (int value : array) {
+                    out.writeInt(value);
+                }
+            }
+            for (MappedIntArray array : new MappedIntArray[] { scoreUsers, scores }) {
+                out.writeLong(array.length());
+                for (long i = 0; i < array.length(); i++) {
+                    out.writeInt(array.get(i));
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // Read a dataset written before, by memory mapping the file. The scores are not copied, they are read from the file itself
+    public static Dataset read(File file) throws IOException {
+        return read(file, WINDOW_SIZE);
+    }
+
+    // The size of the windows has to be a multiple of 4, so no int is split over two windows
+    static Dataset read(File file, long windowSize) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            MappedInts in = new MappedInts(randomAccessFile.getChannel(), windowSize);
+            int version = in.get();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported dataset format " + version + " in " + file + ", expected " + FORMAT_VERSION);
+            }
+            int[][] arrays = new int[10][];
+            for (int i = 0; i < arrays.length; i++) {
+                arrays[i] = new int[in.get()];
+                in.get(arrays[i]);
+            }
+            MappedIntArray[] scoreArrays = new MappedIntArray[2];
+            for (int i = 0; i < scoreArrays.length; i++) {
+                long length = (long) in.get() << 32 | in.get() & 0xFFFFFFFFL;
+                scoreArrays[i] = MappedIntArray.map(randomAccessFile.getChannel(), in.position(), length, windowSize);
+                in.skip(length);
+            }
+            return new Dataset(arrays[0], arrays[1], arrays[2], arrays[3], arrays[4], arrays[5], arrays[6], arrays[7], arrays[8], arrays[9],
+                    scoreArrays[0], scoreArrays[1]);
+        }
+        finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // Reads the ints of a file through a window that is mapped at the next part of the file once it has been read
+    private static final class MappedInts {
+
+        private final FileChannel channel;
+        private final long windowSize;
+        private long windowPosition = 0;
+        private IntBuffer window = IntBuffer.allocate(0);
+
+        private MappedInts(FileChannel channel, long windowSize) {
+            this.channel = channel;
+            this.windowSize = windowSize;
+        }
+
+        private int get() throws IOException {
+            nextWindowIfRead();
+            return window.get();
+        }
+
+        private void get(int[] array) throws IOException {
+            int offset = 0;
+            while (offset < array.length) {
+                nextWindowIfRead();
+                int length = Math.min(window.remaining(), array.length - offset);
+                window.get(array, offset, length);
+                offset += length;
+            }
+        }
+
+        // Position in the file of the next int
+        private long position() {
+            return windowPosition + 4L * window.position();
+        }
+
+        // Skip a number of ints, the next window is mapped from there on
+        private void skip(long n) {
+            windowPosition = position() + 4 * n;
+            window = IntBuffer.allocate(0);
+        }
+
+        private void nextWindowIfRead() throws IOException {
+            if (!window.hasRemaining()) {
+                windowPosition += 4L * window.capacity();
+                long size = Math.min(windowSize, channel.size() - windowPosition);
+                if (size < 4) {
+                    throw new EOFException();
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowPosition, size).asIntBuffer();
+            }
+        }
+
+    }
+
+    // All arrays except the scores, in the order they are written
+    int[][] arrays() {
+        return new int[][] { ages, genders, itemOffsets, itemIds, itemAmounts, followerOffsets, followers, friendOffsets, friends, tweetAuthors };
+    }
+
+}
@@ -0,0 +1,67 @@
+package sai.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An array of ints indexed by a long, stored in a file that is memory mapped in windows. It is not limited to 2^31
+ * elements, and its contents live in the page cache instead of on the heap.
+ */
+final class MappedIntArray {
+
+    private final long length;
+    private final int windowLength;
+    private final IntBuffer[] windows;
+
+    private MappedIntArray(FileChannel channel, FileChannel.MapMode mode, long position, long length, long windowSize) throws IOException {
+        if (position + 4 * length > channel.size()) {
+            throw new EOFException();
+        }
+        this.length = length;
+        this.windowLength = (int) (windowSize / 4);
+        windows = new IntBuffer[(int) ((length + windowLength - 1) / windowLength)];
+        for (int i = 0; i < windows.length; i++) {
+            long offset = (long) i * windowLength;
+            windows[i] = channel.map(mode, position + 4 * offset, 4 * Math.min(windowLength, length - offset)).asIntBuffer();
+        }
+    }
+
+    // A new array of zeros, in a temporary file that only exists for as long as it is mapped
+    static MappedIntArray create(long length) throws IOException {
+        File file = File.createTempFile("dataset", ".ints");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(4 * length);
+            return new MappedIntArray(randomAccessFile.getChannel(), FileChannel.MapMode.READ_WRITE, 0, length, Dataset.WINDOW_SIZE);
+        }
+        finally {
+            randomAccessFile.close();
+            // The mapping stays valid once the file is deleted, where an open file can not be deleted it goes on exit
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    // The ints at a position of a file, read only. The size of the windows has to be a multiple of 4
+    static MappedIntArray map(FileChannel channel, long position, long length, long windowSize) throws IOException {
+        return new MappedIntArray(channel, FileChannel.MapMode.READ_ONLY, position, length, windowSize);
+    }
+
+    long length() {
+        return length;
+    }
+
+    int get(long index) {
+        return windows[(int) (index / windowLength)].get((int) (index % windowLength));
+    }
+
+    void set(long index, int value) {
+        windows[(int) (index / windowLength)].put((int) (index % windowLength), value);
+    }
+
+}
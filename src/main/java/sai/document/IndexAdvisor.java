@@ -0,0 +1,135 @@
+package sai.document;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captures the explain plans of a suite of queries, proposes compound indexes for the queries that scan more documents
+ * than they return and benchmarks the suite before and after applying them.
+ */
+public class IndexAdvisor {
+
+    private final DBCollection collection;
+
+    public IndexAdvisor(DBCollection collection) {
+        this.collection = collection;
+    }
+
+    // Explain a query and capture the chosen index and the number of scanned versus returned documents
+    public DBObject explain(DBObject query) {
+        DBObject plan = collection.find(query).explain();
+        BasicDBObject result = new BasicDBObject();
+        if (plan.containsField("executionStats")) {
+            // Explain output of MongoDB 3.0 and up
+            DBObject executionStats = (DBObject) plan.get("executionStats");
+            result.append("index", findIndexName((DBObject) ((DBObject) plan.get("queryPlanner")).get("winningPlan")));
+            result.append("nscanned", executionStats.get("totalKeysExamined"));
+            result.append("nscannedObjects", executionStats.get("totalDocsExamined"));
+            result.append("nreturned", executionStats.get("nReturned"));
+            result.append("millis", executionStats.get("executionTimeMillis"));
+        } else {
+            result.append("index", plan.get("cursor"));
+            result.append("nscanned", plan.get("nscanned"));
+            result.append("nscannedObjects", plan.get("nscannedObjects"));
+            result.append("nreturned", plan.get("n"));
+            result.append("millis", plan.get("millis"));
+        }
+        return result;
+    }
+
+    // Find the index used by a plan stage or one of its input stages
+    private String findIndexName(DBObject stage) {
+        while (stage != null) {
+            if (stage.containsField("indexName")) {
+                return (String) stage.get("indexName");
+            }
+            stage = (DBObject) stage.get("inputStage");
+        }
+        return "COLLSCAN";
+    }
+
+    // Propose a compound index for a query, with the equality fields first followed by the range and other fields
+    public DBObject proposeIndex(DBObject query) {
+        List<String> equalityFields = new ArrayList<String>();
+        List<String> otherFields = new ArrayList<String>();
+        for (String field : query.keySet()) {
+            if (field.startsWith("$")) {
+                continue;
+            }
+            Object condition = query.get(field);
+            if (condition instanceof DBObject && !isEquality((DBObject) condition)) {
+                otherFields.add(field);
+            } else {
+                equalityFields.add(field);
+            }
+        }
+        BasicDBObject index = new BasicDBObject();
+        for (String field : equalityFields) {
+            index.append(field, 1);
+        }
+        for (String field : otherFields) {
+            index.append(field, 1);
+        }
+        return index;
+    }
+
+    private boolean isEquality(DBObject condition) {
+        for (String operator : condition.keySet()) {
+            if (operator.startsWith("$") && !operator.equals("$eq")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    // Average time in milliseconds it takes the server to count the matches of a query
+    public double benchmark(DBObject query, int runs) {
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            collection.count(query);
+        }
+        return (System.nanoTime() - start) / (runs * 1000000.0);
+    }
+
+    // Explain and benchmark each query, apply the proposed indexes and explain and benchmark each query again
+    public DBObject advise(Map<String, DBObject> queries, int runs) {
+        BasicDBList results = new BasicDBList();
+        BasicDBList proposedIndexes = new BasicDBList();
+        for (Map.Entry<String, DBObject> query : queries.entrySet()) {
+            DBObject plan = explain(query.getValue());
+            plan.put("averageMillis", benchmark(query.getValue(), runs));
+            BasicDBObject result = new BasicDBObject("query", query.getKey()).append("filter", query.getValue()).append("before", plan);
+            // Only queries that have to filter the documents they fetch benefit from a better index
+            if (toLong(plan.get("nscannedObjects")) > toLong(plan.get("nreturned"))) {
+                DBObject index = proposeIndex(query.getValue());
+                result.append("proposedIndex", index);
+                if (!proposedIndexes.contains(index)) {
+                    proposedIndexes.add(index);
+                }
+            }
+            results.add(result);
+        }
+        for (Object index : proposedIndexes) {
+            collection.createIndex((DBObject) index);
+        }
+        for (Object result : results) {
+            DBObject queryResult = (DBObject) result;
+            DBObject query = queries.get((String) queryResult.get("query"));
+            DBObject plan = explain(query);
+            plan.put("averageMillis", benchmark(query, runs));
+            queryResult.put("after", plan);
+        }
+        return new BasicDBObject("collection", collection.getFullName()).append("proposedIndexes", proposedIndexes).append("queries", results);
+    }
+
+}
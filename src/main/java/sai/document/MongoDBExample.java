@@ -1,11 +1,34 @@
 package sai.document;
 
 import com.mongodb.*;
+import com.mongodb.util.JSON;
+import sai.data.DataGenerator;
+import sai.data.Dataset;
+import sai.metrics.Metrics;
+import sai.metrics.MetricsReporter;
+import sai.metrics.OperationMetrics;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: dsuvee
@@ -15,81 +38,301 @@ public class MongoDBExample {
     private final Mongo mongoClient;
     private final DB database;
     private final DBCollection userCollection;
+    private final DBCollection itemTotalsCollection;
     private final String[] genders = new String[] { "male", "female"};
-    private final int numberOfUsers = 10000;
+    private final Dataset dataset;
+    private final int numberOfUsers;
+    private boolean maintainItemTotals = false;
 
-    public MongoDBExample() throws UnknownHostException {
+    // The ways the item totals can be calculated
+    public enum ItemTotalsBackend {
+        MAP_REDUCE,
+        AGGREGATION,
+        CLIENT,
+        PRE_AGGREGATED
+    }
+
+    // Map-reduce functions that sum the amounts sold per item
+    private static final String ITEMS_MAP = "function() {  " +
+            "var numberofitems = this.items.length; " +
+            "for (i = 0; i < numberofitems; i++) { " +
+               "emit (this.items[i].name, this.items[i].amount) "+
+            "} " +
+            "}";
+
+    private static final String ITEMS_REDUCE = "function(key, values) { " +
+            "return Array.sum(values);" +
+            "}";
+
+    private static final OperationMetrics COUNT_USERS = Metrics.operation("mongodb.countUsers");
+    private static final OperationMetrics LIST_USERS = Metrics.operation("mongodb.listUsers");
+    private static final OperationMetrics INSERT_USERS = Metrics.operation("mongodb.insertUsers");
+    private static final OperationMetrics ADD_ITEM = Metrics.operation("mongodb.addItem");
+
+    // Orders item totals on their total, highest first
+    private static final Comparator<DBObject> BY_TOTAL_DESCENDING = new Comparator<DBObject>() {
+        public int compare(DBObject o1, DBObject o2) {
+            return Long.compare(((Number) o2.get("total")).longValue(), ((Number) o1.get("total")).longValue());
+        }
+    };
+
+    public MongoDBExample(Dataset dataset) throws UnknownHostException {
+        this.dataset = dataset;
+        numberOfUsers = dataset.getNumberOfUsers();
         mongoClient = new MongoClient("localhost:27017");
         database = mongoClient.getDB("database");
         userCollection = database.getCollection("users");
+        itemTotalsCollection = database.getCollection("item_totals");
+        createIndexes();
+    }
+
+    private void createIndexes() {
         userCollection.createIndex(new BasicDBObject("age",1));
         userCollection.createIndex(new BasicDBObject("name",1));
+        itemTotalsCollection.createIndex(new BasicDBObject("total",-1));
+    }
+
+    // Keep the total amount sold of each item up to date while importing users
+    public void setMaintainItemTotals(boolean maintainItemTotals) {
+        this.maintainItemTotals = maintainItemTotals;
+    }
+
+    // Add the amounts of the items of a user to the pending item totals
+    private void addItemTotals(DBObject user, Map<String, long[]> pendingTotals) {
+        for (Object item : (List<?>) user.get("items")) {
+            DBObject itemObject = (DBObject) item;
+            String name = (String) itemObject.get("name");
+            long[] total = pendingTotals.get(name);
+            if (total == null) {
+                total = new long[1];
+                pendingTotals.put(name, total);
+            }
+            total[0] += ((Number) itemObject.get("amount")).longValue();
+        }
+    }
+
+    // Apply the pending item totals, with a single upsert per item
+    private void flushItemTotals(Map<String, long[]> pendingTotals) {
+        for (Map.Entry<String, long[]> total : pendingTotals.entrySet()) {
+            itemTotalsCollection.update(new BasicDBObject("_id", total.getKey()), new BasicDBObject("$inc", new BasicDBObject("total", total.getValue()[0])), true, false);
+        }
+        pendingTotals.clear();
+    }
+
+    // Create the document of a generated user and its items
+    private DBObject createUser(int userId) {
+        BasicDBObject user = new BasicDBObject();
+        user.put("name" , "user" + userId);
+        user.put("gender", genders[dataset.getGender(userId)]);
+        user.put("age", dataset.getAge(userId));
+
+        // Lets add the items of the user
+        int numberofitems = dataset.getNumberOfItems(userId);
+        List<DBObject> itemObjects = new ArrayList<DBObject>(numberofitems);
+        for (int j = 0; j < numberofitems; j++) {
+            DBObject itemObject = new BasicDBObject();
+            itemObject.put("name","item" + dataset.getItemId(userId, j));
+            itemObject.put("amount", dataset.getItemAmount(userId, j));
+            itemObjects.add(itemObject);
+        }
+        user.put("items",itemObjects);
+        return user;
     }
 
     // Import random user data
     public void importUserData() {
         long start = System.currentTimeMillis();
-        Random r = new Random();
-        // Let's generate 10.000 random users and store their data in Redis
+        Map<String, long[]> pendingTotals = new HashMap<String, long[]>();
+        // Let's store the generated users in MongoDB
         for (int i = 0; i < numberOfUsers; i++) {
-            BasicDBObject user = new BasicDBObject();
-            user.put("name" , "user" + i);
-            user.put("gender", genders[r.nextInt(genders.length)]);
-            user.put("age", r.nextInt(90));
-
-            // Lets add a number of random items
-            int numberofitems = r.nextInt(100);
-            List<DBObject> itemObjects = new ArrayList<DBObject>();
-            for (int j = 0; j < numberofitems; j++) {
-                DBObject itemObject = new BasicDBObject();
-                itemObject.put("name","item" + r.nextInt(1000));
-                itemObject.put("amount", r.nextInt(5));
-                itemObjects.add(itemObject);
+            DBObject user = createUser(i);
+            insertUsers(Collections.singletonList(user), userCollection.getWriteConcern());
+            if (maintainItemTotals) {
+                addItemTotals(user, pendingTotals);
+                if ((i + 1) % 1000 == 0) {
+                    flushItemTotals(pendingTotals);
+                }
             }
-            user.put("items",itemObjects);
-
-            userCollection.insert(user);
         }
+        flushItemTotals(pendingTotals);
         System.out.println("Imported users in " + (System.currentTimeMillis() - start) + " ms");
     }
 
+    // Remove all users and item totals, so the next import starts from empty collections. The indexes are kept
+    public void clearUsers() {
+        userCollection.drop();
+        itemTotalsCollection.drop();
+        createIndexes();
+    }
+
+    // Import random user data in batches, creating the documents of the next batches while the current one is being
+    // inserted. When rebuilding the indexes, the users are inserted without indexes and the indexes are built afterwards
+    public void importUserDataBatched(final int batchSize, WriteConcern writeConcern, boolean rebuildIndexes) throws InterruptedException, ExecutionException {
+        if (rebuildIndexes) {
+            userCollection.dropIndexes();
+            itemTotalsCollection.dropIndexes();
+        }
+        long start = System.currentTimeMillis();
+        // A bounded queue makes the generator wait when the inserts can't keep up
+        final BlockingQueue<List<DBObject>> batches = new ArrayBlockingQueue<List<DBObject>>(4);
+        ExecutorService generator = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> generated = generator.submit(new Callable<Void>() {
+                public Void call() throws InterruptedException {
+                    List<DBObject> batch = new ArrayList<DBObject>(batchSize);
+                    for (int i = 0; i < numberOfUsers; i++) {
+                        batch.add(createUser(i));
+                        if (batch.size() == batchSize) {
+                            batches.put(batch);
+                            batch = new ArrayList<DBObject>(batchSize);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        batches.put(batch);
+                    }
+                    // An empty batch marks the end of the data
+                    batches.put(new ArrayList<DBObject>());
+                    return null;
+                }
+            });
+            Map<String, long[]> pendingTotals = new HashMap<String, long[]>();
+            while (true) {
+                List<DBObject> batch = batches.poll(100, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    // The generator never puts the end of the data when it fails, so rethrow its failure instead of waiting
+                    if (generated.isDone()) {
+                        generated.get();
+                    }
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                insertUsers(batch, writeConcern);
+                if (maintainItemTotals) {
+                    for (DBObject user : batch) {
+                        addItemTotals(user, pendingTotals);
+                    }
+                    flushItemTotals(pendingTotals);
+                }
+            }
+            generated.get();
+        }
+        finally {
+            generator.shutdownNow();
+        }
+        long loaded = System.currentTimeMillis();
+        if (rebuildIndexes) {
+            createIndexes();
+        }
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+        System.out.println("Imported users with batch size " + batchSize + " and write concern " + writeConcern + " in " + duration + " ms (" +
+                (numberOfUsers * 1000L / duration) + " docs/s" + (rebuildIndexes ? ", rebuilt indexes in " + (System.currentTimeMillis() - loaded) + " ms" : "") + ")");
+    }
+
+    // Insert the documents of a number of users at once
+    private void insertUsers(final List<DBObject> users, final WriteConcern writeConcern) {
+        INSERT_USERS.time(new OperationMetrics.Call<WriteResult, RuntimeException>() {
+            public WriteResult call() {
+                return userCollection.insert(users, writeConcern);
+            }
+        });
+    }
+
+    // Query for users of a certain age
+    public static DBObject usersOfAge(int age) {
+        return QueryBuilder.start("age").is(age).get();
+    }
+
+    // Query for users of a certain age and gender that bought a certain item
+    public static DBObject usersOfAgeAndItem(int age, int itemId, String gender) {
+        return QueryBuilder.start("age").is(age).and("gender").is(gender).and("items.name").is("item" + itemId).get();
+    }
+
+    // Query for users younger than a certain age and of a certain gender that did not buy a certain item
+    public static DBObject usersYoungerOfAgeAndNotItem(int age, int itemId, String gender) {
+        return QueryBuilder.start("age").lessThan(age).and("gender").is(gender).and("items.name").notIn(new String[]{"item" + itemId}).get();
+    }
+
+    // Stream the users matching a query, fetching them in batches and only retrieving the given fields
+    public DBCursor streamUsers(DBObject query, DBObject fields, int batchSize) {
+        return userCollection.find(query, fields).batchSize(batchSize);
+    }
+
     // Find users of a certain age
     public void findUsersOfAge(int age) {
         long start = System.currentTimeMillis();
-        DBObject query = QueryBuilder.start("age").is(age).get();
-        System.out.println(userCollection.find(query).size() + " users found in " + (System.currentTimeMillis() - start) + " ms");
+        // Let the server count the matches instead of fetching them
+        System.out.println(countUsers(usersOfAge(age)) + " users found in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     // Find users of a certain age and gender that bought a certain item
     public void findUsersOfAgeAndItem(int age, int itemId, String gender) {
         long start = System.currentTimeMillis();
-        DBObject query = QueryBuilder.start("age").is(age).and("gender").is(gender).and("items.name").is("item" + itemId).get();
-        System.out.println(userCollection.find(query).size() + " users found in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println(countUsers(usersOfAgeAndItem(age, itemId, gender)) + " users found in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     // Find users of a certain age and gender that did not buy a certain item
     public void findUsersYoungerOfAgeAndNotItem(int age, int itemId, String gender) {
         long start = System.currentTimeMillis();
-        DBObject query = QueryBuilder.start("age").lessThan(33).and("gender").is("male").and("items.name").notIn(new String[]{"item500"}).get();
-        System.out.println(userCollection.find(query).size() + " users found in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println(countUsers(usersYoungerOfAgeAndNotItem(age, itemId, gender)) + " users found in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Number of users of a certain age
+    public long countUsersOfAge(int age) {
+        return countUsers(usersOfAge(age));
+    }
+
+    // Add an item bought by a user, and to the item totals when they are maintained
+    public void addItem(final int userId, final int itemId, final int amount) {
+        ADD_ITEM.time(new OperationMetrics.Call<Void, RuntimeException>() {
+            public Void call() {
+                DBObject item = new BasicDBObject("name", "item" + itemId).append("amount", amount);
+                userCollection.update(new BasicDBObject("name", "user" + userId), new BasicDBObject("$push", new BasicDBObject("items", item)));
+                if (maintainItemTotals) {
+                    itemTotalsCollection.update(new BasicDBObject("_id", "item" + itemId), new BasicDBObject("$inc", new BasicDBObject("total", amount)), true, false);
+                }
+                return null;
+            }
+        });
+    }
+
+    // Let the server count the users matching a query
+    private long countUsers(final DBObject query) {
+        return COUNT_USERS.time(new OperationMetrics.Call<Long, RuntimeException>() {
+            public Long call() {
+                return userCollection.count(query);
+            }
+        });
+    }
+
+    // List the names of users of a certain age and gender that did not buy a certain item, without fetching their items
+    public void listUsersYoungerOfAgeAndNotItem(int age, int itemId, String gender, int batchSize) {
+        long start = System.currentTimeMillis();
+        final DBCursor users = streamUsers(usersYoungerOfAgeAndNotItem(age, itemId, gender), new BasicDBObject("name", 1), batchSize);
+        int count = LIST_USERS.time(new OperationMetrics.Call<Integer, RuntimeException>() {
+            public Integer call() {
+                int count = 0;
+                try {
+                    while (users.hasNext()) {
+                        users.next().get("name");
+                        count++;
+                    }
+                }
+                finally {
+                    users.close();
+                }
+                return count;
+            }
+        });
+        System.out.println(count + " users listed in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     // Aggregate the number of items that have been sold
     public void aggregateAllItems() {
         long start = System.currentTimeMillis();
 
-        String map = "function() {  " +
-                "var numberofitems = this.items.length; " +
-                "for (i = 0; i < numberofitems; i++) { " +
-                   "emit (this.items[i].name, this.items[i].amount) "+
-                "} " +
-                "}";
-
-        String reduce = "function(key, values) { " +
-                "return Array.sum(values);" +
-                "}";
-
-        MapReduceCommand cmd = new MapReduceCommand(userCollection, map, reduce, null, MapReduceCommand.OutputType.INLINE, null);
+        MapReduceCommand cmd = new MapReduceCommand(userCollection, ITEMS_MAP, ITEMS_REDUCE, null, MapReduceCommand.OutputType.INLINE, null);
         MapReduceOutput out = userCollection.mapReduce(cmd);
 
         for (DBObject o : out.results()) {
@@ -117,8 +360,8 @@ public class MongoDBExample {
         // Sort them on total
         pipeline[3] = BasicDBObjectBuilder.start("$sort", new BasicDBObject("total",-1)).get();
 
-        // Only get the top 10
-        pipeline[4] = BasicDBObjectBuilder.start("$limit", 10).get();
+        // Only get the top 100
+        pipeline[4] = BasicDBObjectBuilder.start("$limit", 100).get();
 
         DBObject aggregatecommand = BasicDBObjectBuilder.start("aggregate", "users").add("pipeline",pipeline).get();
         CommandResult commandresult = database.command(aggregatecommand);
@@ -128,15 +371,201 @@ public class MongoDBExample {
         System.out.println(" Items aggregate in " + (System.currentTimeMillis() - start) + " ms");
     }
 
-    public static void main(String[] args) throws UnknownHostException {
-        MongoDBExample example = new MongoDBExample();
+    // Find the top selling items, calculating the item totals with the given backend
+    public List<DBObject> findTopItems(final ItemTotalsBackend backend, final int topN) {
+        return Metrics.operation("mongodb.findTopItems." + backend).time(new OperationMetrics.Call<List<DBObject>, RuntimeException>() {
+            public List<DBObject> call() {
+                switch (backend) {
+                    case MAP_REDUCE:
+                        return findTopItemsMapReduce(topN);
+                    case AGGREGATION:
+                        return findTopItemsAggregation(topN);
+                    case PRE_AGGREGATED:
+                        return findTopItemsPreAggregated(topN);
+                    default:
+                        return findTopItemsClient(topN);
+                }
+            }
+        });
+    }
+
+    // Read the top items from the item totals maintained while importing, using the index on total
+    private List<DBObject> findTopItemsPreAggregated(int topN) {
+        List<DBObject> topItems = new ArrayList<DBObject>(topN);
+        DBCursor totals = itemTotalsCollection.find().sort(new BasicDBObject("total", -1)).limit(topN);
+        try {
+            for (DBObject total : totals) {
+                topItems.add(total);
+            }
+        }
+        finally {
+            totals.close();
+        }
+        return topItems;
+    }
+
+    // Check the maintained item totals against item totals recomputed from scratch
+    public void checkItemTotals() {
+        long start = System.currentTimeMillis();
+        Map<String, long[]> expectedTotals = computeItemTotals();
+        int driftingItems = 0;
+        long drift = 0;
+        DBCursor totals = itemTotalsCollection.find();
+        try {
+            for (DBObject total : totals) {
+                long[] expectedTotal = expectedTotals.remove(total.get("_id"));
+                long difference = ((Number) total.get("total")).longValue() - (expectedTotal != null ? expectedTotal[0] : 0);
+                if (difference != 0) {
+                    driftingItems++;
+                    drift += Math.abs(difference);
+                }
+            }
+        }
+        finally {
+            totals.close();
+        }
+        // Whatever is left has not been maintained at all
+        for (long[] expectedTotal : expectedTotals.values()) {
+            driftingItems++;
+            drift += expectedTotal[0];
+        }
+        System.out.println(driftingItems + " items with a total drift of " + drift + " found in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Map-reduce into an output collection, so the totals are not limited by the size of an inline result
+    private List<DBObject> findTopItemsMapReduce(int topN) {
+        MapReduceCommand cmd = new MapReduceCommand(userCollection, ITEMS_MAP, ITEMS_REDUCE, "item_totals_mapreduce", MapReduceCommand.OutputType.REPLACE, null);
+        MapReduceOutput out = userCollection.mapReduce(cmd);
+
+        List<DBObject> topItems = new ArrayList<DBObject>(topN);
+        DBCursor totals = out.getOutputCollection().find().sort(new BasicDBObject("value", -1)).limit(topN);
+        try {
+            for (DBObject total : totals) {
+                topItems.add(new BasicDBObject("_id", total.get("_id")).append("total", total.get("value")));
+            }
+        }
+        finally {
+            totals.close();
+        }
+        return topItems;
+    }
+
+    // Aggregate into an output collection, allowing the group stage to spill to disk, and read the top items with a cursor
+    private List<DBObject> findTopItemsAggregation(int topN) {
+        DBObject[] pipeline = new DBObject[4];
+        pipeline[0] = BasicDBObjectBuilder.start("$project", new BasicDBObject("items",1)).get();
+        pipeline[1] = BasicDBObjectBuilder.start("$unwind","$items").get();
+        pipeline[2] = BasicDBObjectBuilder.start("$group", new BasicDBObject("_id", "$items.name").append("total", new BasicDBObject("$sum","$items.amount"))).get();
+        pipeline[3] = BasicDBObjectBuilder.start("$out", "item_totals_aggregation").get();
+
+        DBObject aggregatecommand = BasicDBObjectBuilder.start("aggregate", userCollection.getName()).add("pipeline",pipeline).add("allowDiskUse", true).get();
+        database.command(aggregatecommand).throwOnError();
+
+        List<DBObject> topItems = new ArrayList<DBObject>(topN);
+        DBCursor totals = database.getCollection("item_totals_aggregation").find().sort(new BasicDBObject("total", -1)).limit(topN);
+        try {
+            for (DBObject total : totals) {
+                topItems.add(total);
+            }
+        }
+        finally {
+            totals.close();
+        }
+        return topItems;
+    }
+
+    // Stream only the items of each user and sum them on the client
+    private Map<String, long[]> computeItemTotals() {
+        Map<String, long[]> totals = new HashMap<String, long[]>();
+        DBCursor users = streamUsers(new BasicDBObject("items", new BasicDBObject("$exists", true)), new BasicDBObject("items", 1).append("_id", 0), 1000);
+        try {
+            for (DBObject user : users) {
+                addItemTotals(user, totals);
+            }
+        }
+        finally {
+            users.close();
+        }
+        return totals;
+    }
+
+    // Sum the items on the client, keeping the top items in a bounded heap
+    private List<DBObject> findTopItemsClient(int topN) {
+        Map<String, long[]> totals = computeItemTotals();
+
+        // The heap keeps the lowest total on top, so it can be replaced by a higher one
+        PriorityQueue<DBObject> topTotals = new PriorityQueue<DBObject>(topN + 1, Collections.reverseOrder(BY_TOTAL_DESCENDING));
+        for (Map.Entry<String, long[]> total : totals.entrySet()) {
+            topTotals.add(new BasicDBObject("_id", total.getKey()).append("total", total.getValue()[0]));
+            if (topTotals.size() > topN) {
+                topTotals.poll();
+            }
+        }
+        List<DBObject> topItems = new ArrayList<DBObject>(topTotals);
+        Collections.sort(topItems, BY_TOTAL_DESCENDING);
+        return topItems;
+    }
+
+    // Aggregate the top selling items with a particular backend
+    public void aggregateTopItems(ItemTotalsBackend backend, int topN) {
+        long start = System.currentTimeMillis();
+        List<DBObject> topItems = findTopItems(backend, topN);
+        for (DBObject o : topItems) {
+            System.out.println(o.toString());
+        }
+        System.out.println(" Top " + topN + " items aggregate (" + backend + ") in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Explain the example queries, apply the proposed compound indexes and write the before and after results as json
+    public void adviseIndexes(String reportFile) throws IOException {
+        long start = System.currentTimeMillis();
+        Map<String, DBObject> queries = new LinkedHashMap<String, DBObject>();
+        queries.put("usersOfAge", usersOfAge(33));
+        queries.put("usersOfAgeAndItem", usersOfAgeAndItem(33, 500, genders[0]));
+        queries.put("usersYoungerOfAgeAndNotItem", usersYoungerOfAgeAndNotItem(33, 500, genders[0]));
+        DBObject report = new IndexAdvisor(userCollection).advise(queries, 10);
+        Writer writer = new FileWriter(reportFile);
+        try {
+            writer.write(JSON.serialize(report));
+        }
+        finally {
+            writer.close();
+        }
+        System.out.println("Index advice written to " + reportFile + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Usage: MongoDBExample [number of users or dataset file]
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        MongoDBExample example = new MongoDBExample(DataGenerator.load(args.length > 0 ? args[0] : "10000"));
+        MetricsReporter reporter = new MetricsReporter(new File("metrics"), 10, TimeUnit.SECONDS);
         // Import user data
         example.importUserData();
+        // Compare the batched import for a number of batch sizes, starting from empty collections so the runs are comparable
+        for (int batchSize : new int[] { 10, 100, 1000 }) {
+            example.clearUsers();
+            example.importUserDataBatched(batchSize, WriteConcern.ACKNOWLEDGED, false);
+        }
+        example.clearUsers();
+        example.importUserDataBatched(1000, WriteConcern.UNACKNOWLEDGED, false);
+        example.clearUsers();
+        example.importUserDataBatched(1000, WriteConcern.ACKNOWLEDGED, true);
+        // Maintain the item totals during the final import
+        example.setMaintainItemTotals(true);
+        example.clearUsers();
+        example.importUserDataBatched(1000, WriteConcern.ACKNOWLEDGED, false);
+        example.checkItemTotals();
         example.findUsersOfAge(33);
         example.findUsersOfAgeAndItem(33, 500, example.genders[0]);
         example.findUsersYoungerOfAgeAndNotItem(33, 500, example.genders[0]);
+        example.listUsersYoungerOfAgeAndNotItem(33, 500, example.genders[0], 1000);
+        example.adviseIndexes("index-advice.json");
         example.aggregateAllItems();
         example.aggregateTop100Items();
+        // Compare the item totals backends
+        for (ItemTotalsBackend backend : ItemTotalsBackend.values()) {
+            example.aggregateTopItems(backend, 100);
+        }
+        reporter.close();
     }
 
 }
@@ -0,0 +1,175 @@
+package sai.graph;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suggests the friends of friends of a user that are not yet friends, ranked by the number of paths over a friend, the
+ * same as the suggestion query in Cypher. The paths are counted in an open addressing map from node id to count, and
+ * the best suggestions are kept in a bounded min-heap instead of sorting all candidates. Ties are ranked on lowest node
+ * id, like the Cypher query, so names are only read for the suggestions returned. The maps are reused between queries,
+ * so a suggester should only be used by one thread at a time.
+ */
+public class FriendSuggester {
+
+    private static final long FREE = -1;
+
+    private final GraphDatabaseService graph;
+    private final RelationshipType type;
+    private final BitSet friends = new BitSet();
+    private long[] keys = new long[1024];
+    private int[] counts = new int[1024];
+    // The slots in use, so only those have to be visited and cleared
+    private int[] usedSlots = new int[512];
+    private int size;
+
+    public FriendSuggester(GraphDatabaseService graph, RelationshipType type) {
+        this.graph = graph;
+        this.type = type;
+        Arrays.fill(keys, FREE);
+    }
+
+    // The best suggestions for a user, at most limit of them. Has to be called within a transaction.
+    public List<FriendSuggestion> suggest(long userNode, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit should not be negative, got " + limit);
+        }
+        clear();
+        friends.clear();
+        Node user = graph.getNodeById(userNode);
+        for (Relationship friendship : user.getRelationships(type, Direction.BOTH)) {
+            friends.set((int) friendship.getOtherNode(user).getId());
+        }
+        // Count the paths over a friend, without walking back over the same relationship
+        for (Relationship friendship : user.getRelationships(type, Direction.BOTH)) {
+            Node friend = friendship.getOtherNode(user);
+            for (Relationship friendOfFriend : friend.getRelationships(type, Direction.BOTH)) {
+                if (friendOfFriend.getId() != friendship.getId()) {
+                    long candidate = friendOfFriend.getOtherNode(friend).getId();
+                    if (candidate != userNode && !friends.get((int) candidate)) {
+                        increment(candidate);
+                    }
+                }
+            }
+        }
+        return top(limit);
+    }
+
+    // Select the best candidates in a min-heap of packed ranks: the count in the high bits and the inverted node id in the low bits
+    private List<FriendSuggestion> top(int limit) {
+        long[] heap = new long[Math.min(limit, size)];
+        int heapSize = 0;
+        for (int i = 0; i < size && heap.length > 0; i++) {
+            int slot = usedSlots[i];
+            long rank = ((long) counts[slot] << 32) | (~keys[slot] & 0xFFFFFFFFL);
+            if (heapSize < heap.length) {
+                heap[heapSize++] = rank;
+                siftUp(heap, heapSize - 1);
+            } else if (rank > heap[0]) {
+                heap[0] = rank;
+                siftDown(heap, heapSize);
+            }
+        }
+        List<FriendSuggestion> suggestions = new ArrayList<FriendSuggestion>(heapSize);
+        // Taking the smallest rank each time gives the suggestions worst first
+        while (heapSize > 0) {
+            long rank = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+            long node = ~rank & 0xFFFFFFFFL;
+            suggestions.add(new FriendSuggestion((String) graph.getNodeById(node).getProperty("name"), rank >>> 32));
+        }
+        Collections.reverse(suggestions);
+        return suggestions;
+    }
+
+    private void siftUp(long[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heap[parent] <= heap[i]) {
+                return;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(long[] heap, int heapSize) {
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (heap[i] <= heap[child]) {
+                return;
+            }
+            swap(heap, i, child);
+            i = child;
+        }
+    }
+
+    private void swap(long[] heap, int i, int j) {
+        long value = heap[i];
+        heap[i] = heap[j];
+        heap[j] = value;
+    }
+
+    private void increment(long key) {
+        int slot = slot(key, keys);
+        if (keys[slot] == FREE) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                slot = slot(key, keys);
+            }
+            keys[slot] = key;
+            usedSlots[size++] = slot;
+        }
+        counts[slot]++;
+    }
+
+    // The slot holding a key, or the free slot where it should go
+    private int slot(long key, long[] keys) {
+        int mask = keys.length - 1;
+        int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        Arrays.fill(keys, FREE);
+        for (int i = 0; i < size; i++) {
+            int oldSlot = usedSlots[i];
+            int slot = slot(oldKeys[oldSlot], keys);
+            keys[slot] = oldKeys[oldSlot];
+            counts[slot] = oldCounts[oldSlot];
+            usedSlots[i] = slot;
+        }
+        usedSlots = Arrays.copyOf(usedSlots, keys.length / 2);
+    }
+
+    // Only reset the slots used by the previous query, the arrays keep the size they grew to
+    private void clear() {
+        for (int i = 0; i < size; i++) {
+            keys[usedSlots[i]] = FREE;
+            counts[usedSlots[i]] = 0;
+        }
+        size = 0;
+    }
+
+}
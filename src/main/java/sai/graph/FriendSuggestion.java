@@ -0,0 +1,24 @@
+package sai.graph;
+
+/**
+ * A user suggested as a friend, with the number of friends in common.
+ */
+public class FriendSuggestion {
+
+    private final String name;
+    private final long mutualFriends;
+
+    public FriendSuggestion(String name, long mutualFriends) {
+        this.name = name;
+        this.mutualFriends = mutualFriends;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getMutualFriends() {
+        return mutualFriends;
+    }
+
+}
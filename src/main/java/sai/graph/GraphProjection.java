@@ -0,0 +1,232 @@
+package sai.graph;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The relationships of one type loaded into compressed sparse rows, treating them as undirected: the neighbours of node
+ * i are found in the targets between offsets[i] and offsets[i + 1]. Node ids are used as indexes, as they are dense in
+ * a store without deletes. Large projections are kept in direct buffers, outside of the heap. The centrality
+ * calculations run the power iteration on a fork-join pool, split in ranges of nodes.
+ */
+public class GraphProjection {
+
+    // Projections with more entries than this are allocated outside of the heap
+    private static final int OFF_HEAP_THRESHOLD = 1 << 22;
+    private static final int RANGE_SIZE = 4096;
+
+    private final int numberOfNodes;
+    private final IntBuffer offsets;
+    private final IntBuffer targets;
+    private final ForkJoinPool pool;
+
+    // Partial result of a pass over a range of nodes
+    private interface RangeFunction {
+        double apply(int from, int to);
+    }
+
+    private GraphProjection(int numberOfNodes, IntBuffer offsets, IntBuffer targets, ForkJoinPool pool) {
+        this.numberOfNodes = numberOfNodes;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.pool = pool;
+    }
+
+    // Load the relationships of a type into a projection. Has to be called within a transaction.
+    public static GraphProjection load(GraphDatabaseService graph, RelationshipType type, ForkJoinPool pool) {
+        GlobalGraphOperations operations = GlobalGraphOperations.at(graph);
+        long highestId = -1;
+        for (Node node : operations.getAllNodes()) {
+            highestId = Math.max(highestId, node.getId());
+        }
+        int numberOfNodes = (int) (highestId + 1);
+        // First count the degree of each node, stored at index i + 1, and turn them into offsets
+        IntBuffer offsets = allocate(numberOfNodes + 1);
+        for (Relationship relationship : operations.getAllRelationships()) {
+            if (relationship.isType(type)) {
+                increment(offsets, (int) relationship.getStartNode().getId() + 1);
+                increment(offsets, (int) relationship.getEndNode().getId() + 1);
+            }
+        }
+        for (int i = 1; i <= numberOfNodes; i++) {
+            long offset = (long) offsets.get(i) + offsets.get(i - 1);
+            if (offset > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Projection too large, more than " + Integer.MAX_VALUE + " entries");
+            }
+            offsets.put(i, (int) offset);
+        }
+        // Then fill in the neighbours, using the next free position of each node
+        IntBuffer targets = allocate(offsets.get(numberOfNodes));
+        int[] positions = new int[numberOfNodes];
+        for (int i = 0; i < numberOfNodes; i++) {
+            positions[i] = offsets.get(i);
+        }
+        for (Relationship relationship : operations.getAllRelationships()) {
+            if (relationship.isType(type)) {
+                int start = (int) relationship.getStartNode().getId();
+                int end = (int) relationship.getEndNode().getId();
+                targets.put(positions[start]++, end);
+                targets.put(positions[end]++, start);
+            }
+        }
+        return new GraphProjection(numberOfNodes, offsets, targets, pool);
+    }
+
+    private static IntBuffer allocate(int size) {
+        if (size > OFF_HEAP_THRESHOLD) {
+            // A single direct buffer is limited to 2 GB
+            long bytes = 4L * size;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Projection too large, " + size + " entries take " + bytes + " bytes, more than a buffer can hold");
+            }
+            return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return IntBuffer.allocate(size);
+    }
+
+    private static void increment(IntBuffer buffer, int index) {
+        buffer.put(index, buffer.get(index) + 1);
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    // Number of entries in the projection, each relationship counts twice
+    public int getNumberOfEntries() {
+        return targets.limit();
+    }
+
+    // Eigenvector centrality of each node, normalized to unit length. Iterates on the adjacency matrix plus the
+    // identity, which has the same eigenvectors but also converges for bipartite graphs, until the total change of
+    // the scores is below the tolerance.
+    public double[] eigenvectorCentrality(double tolerance, int maxIterations) {
+        final double[][] scores = new double[][] { new double[numberOfNodes], new double[numberOfNodes] };
+        Arrays.fill(scores[0], 1 / Math.sqrt(numberOfNodes));
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            final double[] current = scores[0];
+            final double[] next = scores[1];
+            final double norm = Math.sqrt(sum(new RangeFunction() {
+                public double apply(int from, int to) {
+                    double squares = 0;
+                    for (int i = from; i < to; i++) {
+                        double score = current[i];
+                        for (int j = offsets.get(i); j < offsets.get(i + 1); j++) {
+                            score += current[targets.get(j)];
+                        }
+                        next[i] = score;
+                        squares += score * score;
+                    }
+                    return squares;
+                }
+            }));
+            double change = sum(new RangeFunction() {
+                public double apply(int from, int to) {
+                    double change = 0;
+                    for (int i = from; i < to; i++) {
+                        next[i] /= norm;
+                        change += Math.abs(next[i] - current[i]);
+                    }
+                    return change;
+                }
+            });
+            scores[0] = next;
+            scores[1] = current;
+            if (change < tolerance) {
+                break;
+            }
+        }
+        return scores[0];
+    }
+
+    // Page rank of each node, the scores add up to one. The score of nodes without relationships is spread over all
+    // nodes. Iterates until the total change of the scores is below the tolerance.
+    public double[] pageRank(final double damping, double tolerance, int maxIterations) {
+        final double[][] scores = new double[][] { new double[numberOfNodes], new double[numberOfNodes] };
+        final double[] contributions = new double[numberOfNodes];
+        Arrays.fill(scores[0], 1.0 / numberOfNodes);
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            final double[] current = scores[0];
+            final double[] next = scores[1];
+            double dangling = sum(new RangeFunction() {
+                public double apply(int from, int to) {
+                    double dangling = 0;
+                    for (int i = from; i < to; i++) {
+                        int degree = offsets.get(i + 1) - offsets.get(i);
+                        if (degree == 0) {
+                            dangling += current[i];
+                            contributions[i] = 0;
+                        } else {
+                            contributions[i] = current[i] / degree;
+                        }
+                    }
+                    return dangling;
+                }
+            });
+            final double base = (1 - damping + damping * dangling) / numberOfNodes;
+            double change = sum(new RangeFunction() {
+                public double apply(int from, int to) {
+                    double change = 0;
+                    for (int i = from; i < to; i++) {
+                        double score = 0;
+                        for (int j = offsets.get(i); j < offsets.get(i + 1); j++) {
+                            score += contributions[targets.get(j)];
+                        }
+                        next[i] = base + damping * score;
+                        change += Math.abs(next[i] - current[i]);
+                    }
+                    return change;
+                }
+            });
+            scores[0] = next;
+            scores[1] = current;
+            if (change < tolerance) {
+                break;
+            }
+        }
+        return scores[0];
+    }
+
+    // Apply a function to all nodes in parallel and add up the partial results
+    private double sum(RangeFunction function) {
+        return pool.invoke(new RangeTask(function, 0, numberOfNodes));
+    }
+
+    private static class RangeTask extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeFunction function;
+        private final int from;
+        private final int to;
+
+        RangeTask(RangeFunction function, int from, int to) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Double compute() {
+            if (to - from <= RANGE_SIZE) {
+                return function.apply(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(function, from, middle);
+            left.fork();
+            double right = new RangeTask(function, middle, to).compute();
+            return left.join() + right;
+        }
+
+    }
+
+}
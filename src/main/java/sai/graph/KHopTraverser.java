@@ -0,0 +1,169 @@
+package sai.graph;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the nodes within a number of hops of a start node, walking the relationships of a single type by node id. The
+ * visited nodes are kept in a bitset and in a queue of node ids in breadth first order, in which each depth is a
+ * contiguous range that serves as the frontier of the next one. Both are reused between queries, so a traverser should
+ * only be used by one thread at a time. Large frontiers can be expanded in parallel, each worker in its own transaction.
+ */
+public class KHopTraverser {
+
+    private final GraphDatabaseService graph;
+    private final RelationshipType type;
+    private final ExecutorService workers;
+    private final int numberOfThreads;
+    private final int parallelThreshold;
+    private final BitSet visited = new BitSet();
+    private long[] queue = new long[1024];
+    private int size;
+
+    public KHopTraverser(GraphDatabaseService graph, RelationshipType type) {
+        this(graph, type, 1, Integer.MAX_VALUE);
+    }
+
+    // Frontiers of at least parallelThreshold nodes are split over a number of threads
+    public KHopTraverser(GraphDatabaseService graph, RelationshipType type, int numberOfThreads, int parallelThreshold) {
+        this.graph = graph;
+        this.type = type;
+        this.numberOfThreads = numberOfThreads;
+        this.parallelThreshold = parallelThreshold;
+        this.workers = numberOfThreads > 1 ? Executors.newFixedThreadPool(numberOfThreads) : null;
+    }
+
+    // The ids of the nodes within a number of hops of a start node, the start node included, in breadth first order and
+    // at most limit of them. Has to be called within a transaction.
+    public long[] neighborhood(long startNode, int depth, Direction direction, int limit) throws InterruptedException, ExecutionException {
+        visited.clear();
+        size = 0;
+        add(startNode);
+        int from = 0;
+        for (int hop = 0; hop < depth && size < limit; hop++) {
+            int to = size;
+            if (to == from) {
+                break;
+            }
+            if (workers != null && to - from >= parallelThreshold) {
+                expandParallel(from, to, direction, limit);
+            } else {
+                expand(from, to, direction, limit);
+            }
+            from = to;
+        }
+        return Arrays.copyOf(queue, Math.min(size, limit));
+    }
+
+    // Number of nodes within a number of hops of a start node, the start node included
+    public int count(long startNode, int depth, Direction direction) throws InterruptedException, ExecutionException {
+        return neighborhood(startNode, depth, direction, Integer.MAX_VALUE).length;
+    }
+
+    private void expand(int from, int to, Direction direction, int limit) {
+        for (int i = from; i < to; i++) {
+            long node = queue[i];
+            for (Relationship relationship : graph.getNodeById(node).getRelationships(type, direction)) {
+                long other = otherNode(relationship, node);
+                if (!visited.get((int) other)) {
+                    add(other);
+                    if (size >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // Collect the neighbours of parts of the frontier on the workers, and add the ones not visited yet once all of them
+    // are done, so the visited nodes and the queue are never written while a worker reads them
+    private void expandParallel(int from, int to, final Direction direction, int limit) throws InterruptedException, ExecutionException {
+        int partSize = (to - from + numberOfThreads - 1) / numberOfThreads;
+        final long[] frontier = queue;
+        List<Callable<long[]>> parts = new ArrayList<Callable<long[]>>(numberOfThreads);
+        for (int start = from; start < to; start += partSize) {
+            final int partFrom = start;
+            final int partTo = Math.min(start + partSize, to);
+            parts.add(new Callable<long[]>() {
+                public long[] call() {
+                    return neighbours(frontier, partFrom, partTo, direction);
+                }
+            });
+        }
+        // Waits for all parts, and cancels the ones still running when interrupted
+        List<Future<long[]>> results = workers.invokeAll(parts);
+        for (Future<long[]> part : results) {
+            long[] neighbours = part.get();
+            // The first element holds the number of neighbours found
+            for (int i = 1; i <= neighbours[0]; i++) {
+                if (!visited.get((int) neighbours[i])) {
+                    add(neighbours[i]);
+                    if (size >= limit) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // The neighbours of a part of the frontier that were not visited before this depth, prefixed with their number.
+    // Only runs while the traversing thread waits for all parts, so the visited nodes do not change underneath it.
+    private long[] neighbours(long[] frontier, int from, int to, Direction direction) {
+        long[] neighbours = new long[1024];
+        int count = 0;
+        Transaction t = graph.beginTx();
+        try {
+            for (int i = from; i < to; i++) {
+                long node = frontier[i];
+                for (Relationship relationship : graph.getNodeById(node).getRelationships(type, direction)) {
+                    long other = otherNode(relationship, node);
+                    if (!visited.get((int) other)) {
+                        if (count + 1 == neighbours.length) {
+                            neighbours = Arrays.copyOf(neighbours, neighbours.length * 2);
+                        }
+                        neighbours[++count] = other;
+                    }
+                }
+            }
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+        neighbours[0] = count;
+        return neighbours;
+    }
+
+    private long otherNode(Relationship relationship, long node) {
+        long start = relationship.getStartNode().getId();
+        return start != node ? start : relationship.getEndNode().getId();
+    }
+
+    private void add(long node) {
+        visited.set((int) node);
+        if (size == queue.length) {
+            queue = Arrays.copyOf(queue, queue.length * 2);
+        }
+        queue[size++] = node;
+    }
+
+    public void close() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+}
@@ -1,21 +1,30 @@
 package sai.graph;
 
-import com.google.common.collect.Sets;
 import org.neo4j.cypher.javacompat.ExecutionEngine;
-import org.neo4j.cypher.javacompat.ExecutionResult;
-import org.neo4j.graphalgo.CostEvaluator;
-import org.neo4j.graphalgo.impl.centrality.EigenvectorCentralityPower;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
 import org.neo4j.graphdb.traversal.*;
 import org.neo4j.graphdb.traversal.Traverser;
 import org.neo4j.kernel.Traversal;
 import org.neo4j.kernel.impl.util.StringLogger;
-import org.neo4j.tooling.GlobalGraphOperations;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import sai.data.DataGenerator;
+import sai.data.Dataset;
+import sai.metrics.HeapUsage;
+import sai.metrics.Metrics;
+import sai.metrics.MetricsReporter;
+import sai.metrics.OperationMetrics;
 
+import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: dsuvee
@@ -25,79 +34,341 @@ public class Neo4JExample {
     private final GraphDatabaseService graph;
     private final IndexManager indexManager;
     private final Index<Node> userIndex;
+    private final KHopTraverser friendsTraverser;
     private final String[] genders = new String[] { "male", "female"};
-    private final int numberOfUsers = 10000;
-    private final int numberOfRelations = 100000;
+    private final Dataset dataset;
+    private final int numberOfUsers;
+    private final ExecutionEngine cypher;
+    private final ThreadLocal<FriendSuggester> friendSuggester;
+    private final ForkJoinPool analyticsPool = new ForkJoinPool();
+    private GraphProjection friendsProjection;
+    private double[] eigenvectorScores;
+    private double[] pageRankScores;
+    private UserIndex userIndexType;
+    // The node id of each user, kept when the users are imported
+    private long[] userNodeIds;
     private enum RelTypes implements RelationshipType {
         is_friend
     }
+    private enum Labels implements Label {
+        User
+    }
+
+    // Indexes to look up users by age with: none, the legacy lucene index, or schema indexes on the User label
+    public enum UserIndex {
+        NONE, LEGACY, SCHEMA
+    }
+
+    // Engines to find friend suggestions with: the Cypher query, or a native walk over the relationships
+    public enum SuggestionEngine {
+        CYPHER, NATIVE
+    }
 
-    public Neo4JExample() {
-        graph = new GraphDatabaseFactory().newEmbeddedDatabase("example");
+    static final String FRIEND_SUGGESTIONS_QUERY = "START user = node({id}) " +
+                                                   "MATCH user-[:is_friend*2..2]-friend_of_friend " +
+                                                   "WHERE NOT (user-[:is_friend]-friend_of_friend) AND friend_of_friend <> user " +
+                                                   "RETURN id(friend_of_friend) AS id, friend_of_friend.name AS name, COUNT(*) AS mutual_friends " +
+                                                   "ORDER BY mutual_friends DESC, id " +
+                                                   "LIMIT {limit}";
+
+    private static final OperationMetrics COUNT_USERS_OF_AGE = Metrics.operation("neo4j.countUsersOfAge");
+    private static final OperationMetrics NEIGHBORHOOD = Metrics.operation("neo4j.neighborhood");
+    private static final OperationMetrics FRIENDS_OF_FRIENDS = Metrics.operation("neo4j.friendsOfFriends");
+    private static final OperationMetrics COUNT_FRIENDS = Metrics.operation("neo4j.countFriends");
+    private static final OperationMetrics BEFRIEND = Metrics.operation("neo4j.befriend");
+    private static final OperationMetrics COMMIT = Metrics.operation("neo4j.commit");
+    private static final OperationMetrics SUGGEST_FRIENDS_CYPHER = Metrics.operation("neo4j.suggestFriends.CYPHER");
+    private static final OperationMetrics SUGGEST_FRIENDS_NATIVE = Metrics.operation("neo4j.suggestFriends.NATIVE");
+
+    public Neo4JExample(Dataset dataset) {
+        this("example", dataset);
+    }
+
+    public Neo4JExample(String storeDir, Dataset dataset) {
+        this.dataset = dataset;
+        numberOfUsers = dataset.getNumberOfUsers();
+        graph = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir);
         Transaction t = graph.beginTx();
         indexManager = graph.index();
         userIndex = indexManager.forNodes("users");
         t.success();
         t.close();
+        friendsTraverser = new KHopTraverser(graph, RelTypes.is_friend, Runtime.getRuntime().availableProcessors(), 1024);
+        // A suggester reuses its maps between queries, so each thread gets its own
+        friendSuggester = new ThreadLocal<FriendSuggester>() {
+            protected FriendSuggester initialValue() {
+                return new FriendSuggester(graph, RelTypes.is_friend);
+            }
+        };
+        cypher = new ExecutionEngine(graph, StringLogger.SYSTEM);
+        setUserIndex(UserIndex.SCHEMA);
     }
 
-    // Import random user data
+    // Select the index to maintain and to look up users by age with, creating or dropping the schema indexes on age and name
+    public void setUserIndex(UserIndex userIndexType) {
+        this.userIndexType = userIndexType;
+        Transaction t = graph.beginTx();
+        try {
+            Schema schema = graph.schema();
+            boolean indexed = schema.getIndexes(Labels.User).iterator().hasNext();
+            if (userIndexType == UserIndex.SCHEMA && !indexed) {
+                schema.indexFor(Labels.User).on("age").create();
+                schema.indexFor(Labels.User).on("name").create();
+            } else if (userIndexType != UserIndex.SCHEMA) {
+                for (IndexDefinition index : schema.getIndexes(Labels.User)) {
+                    index.drop();
+                }
+            }
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+        t = graph.beginTx();
+        try {
+            graph.schema().awaitIndexesOnline(10, TimeUnit.MINUTES);
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    // Import random user data in a single transaction
     public void importUserData() {
+        importUserData(Integer.MAX_VALUE);
+    }
+
+    // Import random user data, committing every chunk of a certain number of users
+    public void importUserData(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive, got " + chunkSize);
+        }
+        invalidateFriendsProjection();
+        HeapUsage.resetPeakHeapUsage();
         long start = System.currentTimeMillis();
+        userNodeIds = new long[numberOfUsers];
         Transaction t = graph.beginTx();
         try {
-            Random r = new Random();
-            // Let's generate 10.000 random users and store their data in Neo4J
+            // Let's store the generated users in Neo4J
             for (int i = 0; i < numberOfUsers; i++) {
-                Node user = graph.createNode();
-                int age = r.nextInt(90);
+                Node user = graph.createNode(Labels.User);
+                int age = dataset.getAge(i);
                 user.setProperty("name" , "user" + i);
-                user.setProperty("gender", genders[r.nextInt(genders.length)]);
+                user.setProperty("gender", genders[dataset.getGender(i)]);
                 user.setProperty("age", age);
-                userIndex.add(user, "age", age);
+                if (userIndexType == UserIndex.LEGACY) {
+                    userIndex.add(user, "age", age);
+                }
+                userNodeIds[i] = user.getId();
+                if ((i + 1) % chunkSize == 0) {
+                    t = commit(t);
+                }
             }
             t.success();
         }
         finally {
             t.close();
         }
-        System.out.println("Imported users in " + (System.currentTimeMillis() - start) + " ms");
+        printImportStatistics(numberOfUsers + " users with " + userIndexType + " index", "nodes", numberOfUsers, start);
+    }
+
+    // The node of a user, found through the node ids kept during the import or else through the index on name
+    private Node getUser(int userId) {
+        if (userNodeIds != null) {
+            return graph.getNodeById(userNodeIds[userId]);
+        }
+        ResourceIterator<Node> it = graph.findNodesByLabelAndProperty(Labels.User, "name", "user" + userId).iterator();
+        try {
+            if (!it.hasNext()) {
+                throw new NotFoundException("User " + userId + " not found");
+            }
+            return it.next();
+        }
+        finally {
+            it.close();
+        }
+    }
+
+    private long getUserNodeId(int userId) {
+        Transaction t = graph.beginTx();
+        try {
+            long userNode = getUser(userId).getId();
+            t.success();
+            return userNode;
+        }
+        finally {
+            t.close();
+        }
     }
 
     // Find users of a certain age
     public void findUsersOfAge(int age) {
         Transaction t = graph.beginTx();
         long start = System.currentTimeMillis();
-        System.out.println(userIndex.get("age", age).size() + " users found in " + (System.currentTimeMillis() - start) + " ms");
+        long count = userIndexType == UserIndex.LEGACY ? countUsersOfAgeLegacy(age) : countUsersOfAge(age, age);
+        System.out.println(count + " users found with " + userIndexType + " index in " + (System.currentTimeMillis() - start) + " ms");
         t.success();
         t.close();
     }
 
-    // Create relationships between random persons
+    // Find users with an age within a range
+    public void findUsersOfAgeBetween(int minAge, int maxAge) {
+        Transaction t = graph.beginTx();
+        long start = System.currentTimeMillis();
+        System.out.println(countUsersOfAge(minAge, maxAge) + " users between " + minAge + " and " + maxAge + " found in " + (System.currentTimeMillis() - start) + " ms");
+        t.success();
+        t.close();
+    }
+
+    // Node ids of the users with an age within a range, bounds included. Ages are whole numbers, so a range is looked
+    // up as one index lookup per age. Has to be called within a transaction.
+    public long[] findUserNodesOfAge(int minAge, int maxAge) {
+        long[] nodes = new long[64];
+        int count = 0;
+        for (int age = minAge; age <= maxAge; age++) {
+            ResourceIterator<Node> it = graph.findNodesByLabelAndProperty(Labels.User, "age", age).iterator();
+            try {
+                while (it.hasNext()) {
+                    if (count == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                    }
+                    nodes[count++] = it.next().getId();
+                }
+            }
+            finally {
+                it.close();
+            }
+        }
+        return Arrays.copyOf(nodes, count);
+    }
+
+    // Number of users with an age within a range, bounds included, without reading any of their properties. Has to be
+    // called within a transaction.
+    public long countUsersOfAge(final int minAge, final int maxAge) {
+        return COUNT_USERS_OF_AGE.time(new OperationMetrics.Call<Long, RuntimeException>() {
+            public Long call() {
+                long count = 0;
+                for (int age = minAge; age <= maxAge; age++) {
+                    ResourceIterator<Node> it = graph.findNodesByLabelAndProperty(Labels.User, "age", age).iterator();
+                    try {
+                        while (it.hasNext()) {
+                            it.next();
+                            count++;
+                        }
+                    }
+                    finally {
+                        it.close();
+                    }
+                }
+                return count;
+            }
+        });
+    }
+
+    // Number of users of a certain age, looked up in the legacy index. Has to be called within a transaction.
+    private long countUsersOfAgeLegacy(final int age) {
+        return COUNT_USERS_OF_AGE.time(new OperationMetrics.Call<Long, RuntimeException>() {
+            public Long call() {
+                return (long) userIndex.get("age", age).size();
+            }
+        });
+    }
+
+    // Create relationships between random persons in a single transaction
     public void importRelationshipData() {
+        importRelationshipData(Integer.MAX_VALUE);
+    }
+
+    // Create relationships between random persons, committing every chunk of a certain number of relationships
+    public void importRelationshipData(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive, got " + chunkSize);
+        }
+        invalidateFriendsProjection();
+        HeapUsage.resetPeakHeapUsage();
         long start = System.currentTimeMillis();
         Transaction t = graph.beginTx();
+        int relationships = 0;
         try {
-            Random r = new Random();
-            // Let's generate 100000 random relationships
-            for (int i = 0; i < numberOfRelations; i++) {
-                Node user1 = graph.getNodeById(r.nextInt(10000));
-                Node user2 = graph.getNodeById(r.nextInt(10000));
-                user1.createRelationshipTo(user2, RelTypes.is_friend);
+            // Let's create a relationship for each generated friend edge
+            for (int i = 0; i < numberOfUsers; i++) {
+                Node user1 = getUser(i);
+                for (int j = 0; j < dataset.getNumberOfFriends(i); j++) {
+                    Node user2 = getUser(dataset.getFriend(i, j));
+                    user1.createRelationshipTo(user2, RelTypes.is_friend);
+                    if (++relationships % chunkSize == 0) {
+                        t = commit(t);
+                    }
+                }
             }
             t.success();
         }
         finally {
             t.close();
         }
-        System.out.println("Created friend relationships in " + (System.currentTimeMillis() - start) + " ms");
+        printImportStatistics(relationships + " friend relationships", "rels", relationships, start);
+    }
+
+    // Commit a transaction and start the next one
+    private Transaction commit(final Transaction t) {
+        t.success();
+        COMMIT.time(new OperationMetrics.Call<Void, RuntimeException>() {
+            public Void call() {
+                t.close();
+                return null;
+            }
+        });
+        return graph.beginTx();
+    }
+
+    // Write the users and the friend relationships directly to the store files of a database that is not running. The
+    // node id of each user is kept, so no lookups are needed to create the relationships. The schema indexes on age and
+    // name are populated when the database is started.
+    public static void bulkImport(String storeDir, Dataset dataset) {
+        String[] genders = new String[] { "male", "female"};
+        int numberOfUsers = dataset.getNumberOfUsers();
+        BatchInserter inserter = BatchInserters.inserter(storeDir);
+        try {
+            inserter.createDeferredSchemaIndex(Labels.User).on("age").create();
+            inserter.createDeferredSchemaIndex(Labels.User).on("name").create();
+            HeapUsage.resetPeakHeapUsage();
+            long start = System.currentTimeMillis();
+            Map<String, Object> properties = new HashMap<String, Object>();
+            long[] userNodeIds = new long[numberOfUsers];
+            for (int i = 0; i < numberOfUsers; i++) {
+                properties.put("name", "user" + i);
+                properties.put("gender", genders[dataset.getGender(i)]);
+                properties.put("age", dataset.getAge(i));
+                userNodeIds[i] = inserter.createNode(properties, Labels.User);
+            }
+            printImportStatistics(numberOfUsers + " users in bulk", "nodes", numberOfUsers, start);
+
+            HeapUsage.resetPeakHeapUsage();
+            start = System.currentTimeMillis();
+            for (int i = 0; i < numberOfUsers; i++) {
+                for (int j = 0; j < dataset.getNumberOfFriends(i); j++) {
+                    inserter.createRelationship(userNodeIds[i], userNodeIds[dataset.getFriend(i, j)], RelTypes.is_friend, null);
+                }
+            }
+            printImportStatistics(dataset.getNumberOfFriendEdges() + " friend relationships in bulk", "rels", dataset.getNumberOfFriendEdges(), start);
+        }
+        finally {
+            inserter.shutdown();
+        }
+    }
+
+    private static void printImportStatistics(String imported, String unit, long count, long start) {
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+        System.out.println("Imported " + imported + " in " + duration + " ms (" + (count * 1000 / duration) + " " + unit +
+                "/s, peak heap " + HeapUsage.getPeakHeapUsage() / (1024 * 1024) + " MB)");
     }
 
     // Find friends of a user
     public void findFriendsOfUser(int userId) {
         Transaction t = graph.beginTx();
         long start = System.currentTimeMillis();
-        Iterator<Relationship> it =  graph.getNodeById(userId).getRelationships(Direction.BOTH).iterator();
+        Iterator<Relationship> it =  getUser(userId).getRelationships(Direction.BOTH).iterator();
         int count = 0;
         while (it.hasNext()) {
             it.next();
@@ -108,84 +379,272 @@ public class Neo4JExample {
         t.close();
     }
 
+    // Number of friends of a user
+    public int countFriends(final int userId) {
+        return COUNT_FRIENDS.time(new OperationMetrics.Call<Integer, RuntimeException>() {
+            public Integer call() {
+                Transaction t = graph.beginTx();
+                try {
+                    int count = 0;
+                    for (Relationship friendship : getUser(userId).getRelationships(RelTypes.is_friend, Direction.BOTH)) {
+                        count++;
+                    }
+                    t.success();
+                    return count;
+                }
+                finally {
+                    t.close();
+                }
+            }
+        });
+    }
+
+    // Make two users friends, unless they are the same user or friends already. Returns whether they became friends.
+    public boolean befriend(final int userId1, final int userId2) {
+        if (userId1 == userId2) {
+            return false;
+        }
+        boolean befriended = BEFRIEND.time(new OperationMetrics.Call<Boolean, RuntimeException>() {
+            public Boolean call() {
+                Transaction t = graph.beginTx();
+                try {
+                    Node user1 = getUser(userId1);
+                    Node user2 = getUser(userId2);
+                    // Lock one of both users, so concurrent calls for the same pair can't both find that they aren't friends yet
+                    t.acquireWriteLock(user1.getId() < user2.getId() ? user1 : user2);
+                    for (Relationship friendship : user1.getRelationships(RelTypes.is_friend, Direction.BOTH)) {
+                        if (friendship.getOtherNode(user1).equals(user2)) {
+                            t.success();
+                            return false;
+                        }
+                    }
+                    user1.createRelationshipTo(user2, RelTypes.is_friend);
+                    t.success();
+                    return true;
+                }
+                finally {
+                    t.close();
+                }
+            }
+        });
+        if (befriended) {
+            invalidateFriendsProjection();
+        }
+        return befriended;
+    }
+
     // Find friends of friends
-    public void findFriendsOfFriends(int userId) {
+    public void findFriendsOfFriends(final int userId) {
         Transaction t = graph.beginTx();
         long start = System.currentTimeMillis();
+        int count = FRIENDS_OF_FRIENDS.time(new OperationMetrics.Call<Integer, RuntimeException>() {
+            public Integer call() {
+                return traverseNeighborhood(userId, 2);
+            }
+        });
+        System.out.println(count + " friends of friends found in " + (System.currentTimeMillis() - start) + " ms");
+        t.success();
+        t.close();
+    }
+
+    // Number of users within a number of friend hops of a user, using the traversal framework
+    private int traverseNeighborhood(int userId, int depth) {
         TraversalDescription td =
-            Traversal.description().breadthFirst().relationships(RelTypes.is_friend, Direction.BOTH).evaluator(Evaluators.toDepth(2));
-        Traverser traverser = td.traverse(graph.getNodeById(userId));
+            Traversal.description().breadthFirst().relationships(RelTypes.is_friend, Direction.BOTH).evaluator(Evaluators.toDepth(depth));
+        Traverser traverser = td.traverse(getUser(userId));
         Set<Node> friendsoffriends = new HashSet<Node>();
         for (Path path : traverser) {
             friendsoffriends.add(path.endNode());
         }
-        System.out.println(friendsoffriends.size() + " friends of friends found in " + (System.currentTimeMillis() - start) + " ms");
+        return friendsoffriends.size();
+    }
+
+    // Find the users within a number of friend hops of a user, walking the relationships by node id
+    public void findNeighborhood(final int userId, final int depth) throws Exception {
+        Transaction t = graph.beginTx();
+        long start = System.currentTimeMillis();
+        int count = NEIGHBORHOOD.time(new OperationMetrics.Call<Integer, Exception>() {
+            public Integer call() throws Exception {
+                return friendsTraverser.count(getUser(userId).getId(), depth, Direction.BOTH);
+            }
+        });
+        System.out.println(count + " users within " + depth + " hops found in " + (System.currentTimeMillis() - start) + " ms");
         t.success();
         t.close();
     }
 
+    // Compare the average latency and allocation of the traversal framework and the k-hop traverser
+    public void compareNeighborhoods(int userId, int depth, int runs) throws InterruptedException, ExecutionException {
+        Transaction t = graph.beginTx();
+        try {
+            long allocatedBytes = HeapUsage.getAllocatedBytes();
+            long start = System.nanoTime();
+            int found = 0;
+            for (int i = 0; i < runs; i++) {
+                found = traverseNeighborhood(userId, depth);
+            }
+            printNeighborhoodStatistics("Traversal framework", found, depth, runs, start, allocatedBytes);
+            allocatedBytes = HeapUsage.getAllocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < runs; i++) {
+                found = friendsTraverser.count(getUser(userId).getId(), depth, Direction.BOTH);
+            }
+            printNeighborhoodStatistics("K-hop traverser", found, depth, runs, start, allocatedBytes);
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    private void printNeighborhoodStatistics(String engine, int found, int depth, int runs, long start, long allocatedBytes) {
+        System.out.println(engine + " found " + found + " users within " + depth + " hops in " + (System.nanoTime() - start) / (runs * 1000000.0) +
+                " ms per query, allocating " + (HeapUsage.getAllocatedBytes() - allocatedBytes) / (runs * 1024) + " KB per query");
+    }
+
     // Find friend suggestions
     public void findFriendSugguestions(int userId) {
-        Transaction t = graph.beginTx();
+        findFriendSuggestions(userId, 10, SuggestionEngine.CYPHER);
+    }
+
+    // Find the best friend suggestions for a user with one of the engines
+    public void findFriendSuggestions(int userId, int limit, SuggestionEngine engine) {
         long start = System.currentTimeMillis();
-        ExecutionEngine engine = new ExecutionEngine(graph, StringLogger.SYSTEM);
-        Map<String, Object> parameters = new HashMap<String, Object>();
-        parameters.put("id", userId);
-        ExecutionResult result = engine.execute("START user = node({id})" +
-                                                "MATCH user-[:is_friend*2..2]-friend_of_friend " +
-                                                "WHERE NOT (user-[:is_friend]-friend_of_friend) " +
-                                                "RETURN friend_of_friend.name, COUNT(*) " +
-                                                "ORDER BY COUNT(*) DESC , friend_of_friend.name", parameters);
-        ResourceIterator<Map<String, Object>> it = result.iterator();
-        while (it.hasNext()) {
-            Map<String, Object> row = it.next();
-            for (Map.Entry<String, Object> column : row.entrySet()) {
-                System.out.println(column.getKey() + ": " + column.getValue());
-            }
+        List<FriendSuggestion> suggestions = suggestFriends(userId, limit, engine);
+        for (FriendSuggestion suggestion : suggestions) {
+            System.out.println(suggestion.getName() + ": " + suggestion.getMutualFriends());
         }
-        System.out.println("Friend suggestions found in " + (System.currentTimeMillis() - start) + " ms");
-        t.success();
-        t.close();
+        System.out.println(suggestions.size() + " friend suggestions found with " + engine + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // The best friend suggestions for a user: the friends of friends that are no friends yet, ranked by the number of
+    // friends in common
+    public List<FriendSuggestion> suggestFriends(final int userId, final int limit, final SuggestionEngine engine) {
+        OperationMetrics metrics = engine == SuggestionEngine.NATIVE ? SUGGEST_FRIENDS_NATIVE : SUGGEST_FRIENDS_CYPHER;
+        return metrics.time(new OperationMetrics.Call<List<FriendSuggestion>, RuntimeException>() {
+            public List<FriendSuggestion> call() {
+                Transaction t = graph.beginTx();
+                try {
+                    List<FriendSuggestion> suggestions;
+                    long userNode = getUser(userId).getId();
+                    if (engine == SuggestionEngine.NATIVE) {
+                        suggestions = friendSuggester.get().suggest(userNode, limit);
+                    } else {
+                        suggestions = new ArrayList<FriendSuggestion>();
+                        Map<String, Object> parameters = new HashMap<String, Object>();
+                        parameters.put("id", userNode);
+                        parameters.put("limit", limit);
+                        // The query text stays the same, so its plan is taken from the cache of the engine
+                        ResourceIterator<Map<String, Object>> it = cypher.execute(FRIEND_SUGGESTIONS_QUERY, parameters).iterator();
+                        try {
+                            while (it.hasNext()) {
+                                Map<String, Object> row = it.next();
+                                suggestions.add(new FriendSuggestion((String) row.get("name"), ((Number) row.get("mutual_friends")).longValue()));
+                            }
+                        }
+                        finally {
+                            it.close();
+                        }
+                    }
+                    t.success();
+                    return suggestions;
+                }
+                finally {
+                    t.close();
+                }
+            }
+        });
     }
 
     // Find the importance of a person in the social network
     public void calculateEigenVectorForUser(int userId) {
-        Transaction t = graph.beginTx();
         long start = System.currentTimeMillis();
-        EigenvectorCentralityPower eigenvectorcalc = new EigenvectorCentralityPower(
-                Direction.BOTH,
-                (new CostEvaluator<Double>() {
-                    public Double getCost(Relationship arg0, Direction arg1) {
-                        return 1.0;
-                    }
-                }),
-                Sets.newHashSet(GlobalGraphOperations.at(graph).getAllNodes()),
-                Sets.newHashSet(GlobalGraphOperations.at(graph).getAllRelationships()),
-                0.01);
-        eigenvectorcalc.setMaxIterations(10000);
-        eigenvectorcalc.calculate();
-        System.out.println(eigenvectorcalc.getCentrality(graph.getNodeById(userId)));
+        if (eigenvectorScores == null) {
+            eigenvectorScores = getFriendsProjection().eigenvectorCentrality(1e-6, 1000);
+        }
+        System.out.println(eigenvectorScores[(int) getUserNodeId(userId)]);
         System.out.println("Importance of user found in " + (System.currentTimeMillis() - start) + " ms");
-        t.success();
-        t.close();
+    }
+
+    // Find the page rank of a person in the social network
+    public void calculatePageRankForUser(int userId) {
+        long start = System.currentTimeMillis();
+        if (pageRankScores == null) {
+            pageRankScores = getFriendsProjection().pageRank(0.85, 1e-6, 1000);
+        }
+        System.out.println(pageRankScores[(int) getUserNodeId(userId)]);
+        System.out.println("Page rank of user found in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // The friend relationships loaded in memory, which is kept together with the scores until the graph changes
+    private GraphProjection getFriendsProjection() {
+        if (friendsProjection == null) {
+            long start = System.currentTimeMillis();
+            Transaction t = graph.beginTx();
+            try {
+                friendsProjection = GraphProjection.load(graph, RelTypes.is_friend, analyticsPool);
+                t.success();
+            }
+            finally {
+                t.close();
+            }
+            System.out.println("Loaded " + friendsProjection.getNumberOfNodes() + " users in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        return friendsProjection;
+    }
+
+    // Drop the friend relationships loaded in memory and the scores calculated on them
+    public void invalidateFriendsProjection() {
+        friendsProjection = null;
+        eigenvectorScores = null;
+        pageRankScores = null;
     }
 
     // Shuts down the graph
     public void closeGraph() {
+        friendsTraverser.close();
+        analyticsPool.shutdown();
         graph.shutdown();
     }
 
-    public static void main(String[] args) {
-        Neo4JExample example = new Neo4JExample();
+    // Usage: Neo4JExample [number of users or dataset file] [single|chunked|bulk] [none|legacy|schema]
+    public static void main(String[] args) throws Exception {
+        Dataset dataset = DataGenerator.load(args.length > 0 ? args[0] : "10000");
+        String mode = args.length > 1 ? args[1] : "single";
+        if (mode.equals("bulk")) {
+            bulkImport("example", dataset);
+        }
+        Neo4JExample example = new Neo4JExample(dataset);
+        MetricsReporter reporter = new MetricsReporter(new File("metrics"), 10, TimeUnit.SECONDS);
+        if (args.length > 2) {
+            example.setUserIndex(UserIndex.valueOf(args[2].toUpperCase()));
+        }
         // Import user data
-        example.importUserData();
+        if (mode.equals("chunked")) {
+            example.importUserData(10000);
+        } else if (!mode.equals("bulk")) {
+            example.importUserData();
+        }
         example.findUsersOfAge(33);
-        example.importRelationshipData();
+        example.findUsersOfAgeBetween(20, 29);
+        if (mode.equals("chunked")) {
+            example.importRelationshipData(10000);
+        } else if (!mode.equals("bulk")) {
+            example.importRelationshipData();
+        }
         example.findFriendsOfUser(1000);
         example.findFriendsOfFriends(1000);
+        example.findNeighborhood(1000, 2);
+        example.compareNeighborhoods(1000, 2, 100);
+        example.compareNeighborhoods(1000, 3, 10);
         example.findFriendSugguestions(1000);
+        example.findFriendSuggestions(1000, 10, SuggestionEngine.CYPHER);
+        example.findFriendSuggestions(1000, 10, SuggestionEngine.NATIVE);
+        example.calculateEigenVectorForUser(1000);
         example.calculateEigenVectorForUser(1000);
+        example.calculatePageRankForUser(1000);
         example.closeGraph();
+        reporter.close();
     }
 
 }
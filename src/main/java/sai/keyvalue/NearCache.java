@@ -0,0 +1,115 @@
+package sai.keyvalue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.Map;
+
+/**
+ * In-process cache in front of Redis reads, bounded in number of entries and honouring the expiry of the keys on the server.
+ */
+public class NearCache {
+
+    // Milliseconds a key that does not exist on the server is cached
+    static final long MISSING_KEY_TTL = 1000;
+
+    private final Jedis jedis;
+    private final Cache<String, Entry> cache;
+
+    // A cached value together with the moment the key expires on the server
+    private static final class Entry {
+
+        private final Object value;
+        private final long expiresAt;
+
+        private Entry(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+    public NearCache(Jedis jedis, long maximumSize) {
+        this.jedis = jedis;
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    // Get the value of a string key
+    public String get(String key) {
+        Entry entry = getValidEntry(key);
+        if (entry == null) {
+            Pipeline p = jedis.pipelined();
+            Response<String> value = p.get(key);
+            Response<Long> ttl = p.pttl(key);
+            p.sync();
+            // Missing keys are cached as well, for a short while, local writes invalidate them
+            entry = put(key, value.get(), ttl.get());
+        }
+        return (String) entry.value;
+    }
+
+    // Get all fields of a hash key
+    @SuppressWarnings("unchecked")
+    public Map<String, String> hgetAll(String key) {
+        Entry entry = getValidEntry(key);
+        if (entry == null) {
+            Pipeline p = jedis.pipelined();
+            Response<Map<String, String>> value = p.hgetAll(key);
+            Response<Long> ttl = p.pttl(key);
+            p.sync();
+            entry = put(key, value.get(), ttl.get());
+        }
+        return (Map<String, String>) entry.value;
+    }
+
+    // Remove a key that has been written locally
+    public void invalidate(String key) {
+        cache.invalidate(key);
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private Entry getValidEntry(String key) {
+        // Look at the entry through the map view first, which leaves the statistics alone
+        Entry entry = cache.asMap().get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            // Expired on the server in the meantime, drop it so the lookup below counts as a miss
+            cache.asMap().remove(key, entry);
+        }
+        return cache.getIfPresent(key);
+    }
+
+    private Entry put(String key, Object value, long ttl) {
+        long expiresAt;
+        if (ttl >= 0) {
+            expiresAt = System.currentTimeMillis() + ttl;
+        } else if (ttl == -1) {
+            // The key does not expire
+            expiresAt = Long.MAX_VALUE;
+        } else {
+            // The key does not exist, only remember that briefly as other clients may create it
+            expiresAt = System.currentTimeMillis() + MISSING_KEY_TTL;
+        }
+        Entry entry = new Entry(value, expiresAt);
+        cache.put(key, entry);
+        return entry;
+    }
+
+}
@@ -1,12 +1,35 @@
 package sai.keyvalue;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Tuple;
+import sai.data.DataGenerator;
+import sai.data.Dataset;
+import sai.metrics.HeapUsage;
+import sai.metrics.Metrics;
+import sai.metrics.MetricsReporter;
+import sai.metrics.OperationMetrics;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * User: dsuvee
@@ -14,51 +37,410 @@ import java.util.Set;
 public class RedisExample {
 
     private final Jedis jedis;
+    private final JedisPool pool;
+    private NearCache nearCache;
+    private volatile String addScoreSha;
     private final String[] genders = new String[] { "male", "female"};
-    private final int numberOfUsers = 10000;
+    private final Dataset dataset;
+    private final int numberOfUsers;
+    private final int numberOfRecentScores = 100;
 
-    public RedisExample() {
-        jedis = new Jedis("localhost");
+    // Computes the high score of each user in the batch and updates the overall high scores in one server-side step
+    // KEYS[1] is the overall high scores key, followed by a scores and highscore key pair per user
+    // ARGV[1] is the expiry of the user high scores, followed by the high scores member of each user
+    private static final String HIGHSCORES_SCRIPT =
+            "local expiry = tonumber(ARGV[1]) " +
+            "for i = 2, #KEYS, 2 do " +
+                "local highscore = 0 " +
+                "for _, score in ipairs(redis.call('lrange', KEYS[i], 0, -1)) do " +
+                    "local currentScore = tonumber(score) " +
+                    "if currentScore > highscore then highscore = currentScore end " +
+                "end " +
+                "redis.call('set', KEYS[i + 1], highscore, 'EX', expiry) " +
+                "redis.call('zadd', KEYS[1], highscore, ARGV[i / 2 + 1]) " +
+            "end";
+
+    // Adds a score to the recent scores of a user and raises its high scores when they are beaten, in one atomic step
+    // KEYS[1] is the scores key of the user, KEYS[2] its highscore key and KEYS[3] the overall high scores key
+    // ARGV[1] is the score, ARGV[2] the high scores member of the user, ARGV[3] the number of recent scores to keep and
+    // ARGV[4] the expiry of the user high score
+    private static final String ADD_SCORE_SCRIPT =
+            "local score = tonumber(ARGV[1]) " +
+            "redis.call('lpush', KEYS[1], ARGV[1]) " +
+            "redis.call('ltrim', KEYS[1], 0, tonumber(ARGV[3]) - 1) " +
+            "local highscore = redis.call('zscore', KEYS[3], ARGV[2]) " +
+            "if highscore and score <= tonumber(highscore) then return 0 end " +
+            "redis.call('zadd', KEYS[3], score, ARGV[2]) " +
+            "redis.call('set', KEYS[2], score, 'EX', ARGV[4]) " +
+            "return 1";
+
+    private static final OperationMetrics GET_USER = Metrics.operation("redis.getUser");
+    private static final OperationMetrics UPDATE_HIGH_SCORE = Metrics.operation("redis.updateHighScore");
+    private static final OperationMetrics GET_SCORES = Metrics.operation("redis.getScores");
+    private static final OperationMetrics GET_RANK = Metrics.operation("redis.getRank");
+    private static final OperationMetrics ADD_SCORE = Metrics.operation("redis.addScore");
+    private static final OperationMetrics SYNC_PIPELINE = Metrics.operation("redis.syncPipeline");
+
+    // Reusable ASCII buffers for keys of the form <prefix><number><suffix>, one buffer per number of digits
+    private static final class KeyBuffer {
+
+        private final byte[][] buffers;
+        private final int prefixLength;
+
+        private KeyBuffer(String prefix, String suffix, int maxDigits) {
+            byte[] prefixBytes = prefix.getBytes(Charset.forName("US-ASCII"));
+            byte[] suffixBytes = suffix.getBytes(Charset.forName("US-ASCII"));
+            prefixLength = prefixBytes.length;
+            buffers = new byte[maxDigits + 1][];
+            for (int digits = 1; digits <= maxDigits; digits++) {
+                byte[] buffer = new byte[prefixLength + digits + suffixBytes.length];
+                System.arraycopy(prefixBytes, 0, buffer, 0, prefixLength);
+                System.arraycopy(suffixBytes, 0, buffer, prefixLength + digits, suffixBytes.length);
+                buffers[digits] = buffer;
+            }
+        }
+
+        // Writes the digits of a non-negative number straight into the buffer, the returned buffer is only valid until the next call
+        private byte[] encode(int number) {
+            int digits = 1;
+            for (int remainder = number / 10; remainder > 0; remainder /= 10) {
+                digits++;
+            }
+            byte[] buffer = buffers[digits];
+            int position = prefixLength + digits;
+            do {
+                buffer[--position] = (byte) ('0' + number % 10);
+                number /= 10;
+            } while (number > 0);
+            return buffer;
+        }
+
+    }
+
+    // Parses an ASCII encoded integer without creating an intermediate String
+    private static int parseInt(byte[] bytes) {
+        boolean negative = bytes[0] == '-';
+        int value = 0;
+        for (int i = negative ? 1 : 0; i < bytes.length; i++) {
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    public RedisExample(Dataset dataset) {
+        this("localhost", dataset);
+    }
+
+    public RedisExample(String host, Dataset dataset) {
+        this(host, Protocol.DEFAULT_PORT, dataset);
+    }
+
+    public RedisExample(String host, int port, Dataset dataset) {
+        this.dataset = dataset;
+        numberOfUsers = dataset.getNumberOfUsers();
+        jedis = new Jedis(host, port);
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxActive(16);
+        pool = new JedisPool(poolConfig, host, port);
+    }
+
+    public void close() {
+        jedis.disconnect();
+        pool.destroy();
+    }
+
+    // Put a near cache in front of the user and high score reads
+    public void enableNearCache(long maximumSize) {
+        nearCache = new NearCache(jedis, maximumSize);
+    }
+
+    // Local writes make the cached value stale
+    private void invalidateNearCache(String key) {
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    // Local writes make the cached high score of a user stale, the key is only built when there is a near cache
+    private void invalidateNearCacheHighScore(int userId) {
+        if (nearCache != null) {
+            nearCache.invalidate("user" + ":" + userId + ":" + "highscore");
+        }
+    }
+
+    // Send the pipelined commands and wait for their replies
+    private static void sync(final Pipeline p) {
+        SYNC_PIPELINE.time(new OperationMetrics.Call<Void, RuntimeException>() {
+            public Void call() {
+                p.sync();
+                return null;
+            }
+        });
     }
 
     // Import random user data
     public void importUserData() {
         long start = System.currentTimeMillis();
         Pipeline p = jedis.pipelined();
-        Random r = new Random();
-        // Let's generate 10.000 random users and store their data in Redis
+        // Let's store the generated users in Redis
         for (int i = 0; i < numberOfUsers; i++) {
             String userKey = "user" + ":" + i;
             p.hset(userKey, "name" , "user" + i);
-            p.hset(userKey, "gender", genders[r.nextInt(genders.length)]);
-            p.hset(userKey, "age", r.nextInt(90) + "");
+            p.hset(userKey, "gender", genders[dataset.getGender(i)]);
+            p.hset(userKey, "age", dataset.getAge(i) + "");
+            invalidateNearCache(userKey);
         }
-        p.sync();
+        sync(p);
         System.out.println("Imported users in " + (System.currentTimeMillis() - start) + " ms");
     }
 
     // Import random user scores
     public void importUserScores() {
+        long allocatedBytes = HeapUsage.getAllocatedBytes();
         long start = System.currentTimeMillis();
         Pipeline p = jedis.pipelined();
-        Random r = new Random();
-        // Let's generate 1 million user scores and store them in redis
-        for (int i = 0; i < 1000000; i++) {
-            // Generate a random user and store the new score in it's list of scores
-            int userId = r.nextInt(numberOfUsers);
-            // Random score between 0 and 100000000
-            int score = r.nextInt(100000000);
+        // Let's store the generated user scores in redis
+        for (long i = 0; i < dataset.getNumberOfScores(); i++) {
+            // Store the new score in the list of scores of it's user
+            int userId = dataset.getScoreUser(i);
+            int score = dataset.getScore(i);
             String userScoresKey = "user" + ":" + userId + ":" + "scores";
             p.lpush(userScoresKey, score + "");
             // Make sure only the 100 recent scores are saved
             p.ltrim(userScoresKey, 0, 99);
         }
-        p.sync();
-        System.out.println("Imported user scores in " + (System.currentTimeMillis() - start) + " ms");
+        sync(p);
+        System.out.println("Imported user scores in " + (System.currentTimeMillis() - start) + " ms (" +
+                (HeapUsage.getAllocatedBytes() - allocatedBytes) / (1024 * 1024) + " MB allocated)");
+    }
+
+    // Import random user scores, using binary keys and values that are encoded into reusable buffers
+    public void importUserScoresBinary() {
+        long allocatedBytes = HeapUsage.getAllocatedBytes();
+        long start = System.currentTimeMillis();
+        Pipeline p = jedis.pipelined();
+        KeyBuffer userScoresKeys = new KeyBuffer("user:", ":scores", 10);
+        KeyBuffer scoreValues = new KeyBuffer("", "", 10);
+        // Let's store the generated user scores in redis
+        for (long i = 0; i < dataset.getNumberOfScores(); i++) {
+            int userId = dataset.getScoreUser(i);
+            int score = dataset.getScore(i);
+            // Jedis writes the command to its output buffer right away, so the buffers can be reused for the next command
+            byte[] userScoresKey = userScoresKeys.encode(userId);
+            p.lpush(userScoresKey, scoreValues.encode(score));
+            p.ltrim(userScoresKey, 0, numberOfRecentScores - 1);
+        }
+        sync(p);
+        System.out.println("Imported user scores (binary) in " + (System.currentTimeMillis() - start) + " ms (" +
+                (HeapUsage.getAllocatedBytes() - allocatedBytes) / (1024 * 1024) + " MB allocated)");
+    }
+
+    // Import random user scores, keeping the high scores up to date while importing. The changed high scores are
+    // flushed every flushSize scores
+    public void importUserScoresIncremental(int flushSize) {
+        if (flushSize <= 0) {
+            throw new IllegalArgumentException("Flush size should be positive, got " + flushSize);
+        }
+        long start = System.currentTimeMillis();
+        Pipeline p = jedis.pipelined();
+        // Keep the recent scores of each user locally as a ring buffer, mirroring the trimmed lists in Redis
+        int[][] recentScores = new int[numberOfUsers][numberOfRecentScores];
+        int[] numberOfScores = new int[numberOfUsers];
+        int[] highscores = new int[numberOfUsers];
+        boolean[] changed = new boolean[numberOfUsers];
+        int[] changedUsers = new int[numberOfUsers];
+        int numberOfChangedUsers = 0;
+        // Start from empty score lists, otherwise the local recent scores would not match the ones in Redis
+        for (int i = 0; i < numberOfUsers; i++) {
+            p.del("user" + ":" + i + ":" + "scores");
+        }
+        for (long i = 0; i < dataset.getNumberOfScores(); i++) {
+            int userId = dataset.getScoreUser(i);
+            int score = dataset.getScore(i);
+            String userScoresKey = "user" + ":" + userId + ":" + "scores";
+            p.lpush(userScoresKey, score + "");
+            p.ltrim(userScoresKey, 0, numberOfRecentScores - 1);
+            // Replace the oldest score, which is the one that just got trimmed in Redis
+            int[] userScores = recentScores[userId];
+            int position = numberOfScores[userId] % numberOfRecentScores;
+            boolean trimmed = numberOfScores[userId] >= numberOfRecentScores;
+            int trimmedScore = userScores[position];
+            userScores[position] = score;
+            numberOfScores[userId]++;
+            int highscore = highscores[userId];
+            if (score > highscore) {
+                highscore = score;
+            } else if (trimmed && trimmedScore == highscore) {
+                // The high score itself got trimmed, so find the next best one
+                highscore = 0;
+                for (int userScore : userScores) {
+                    if (userScore > highscore) {
+                        highscore = userScore;
+                    }
+                }
+            }
+            if (highscore != highscores[userId] || numberOfScores[userId] == 1) {
+                highscores[userId] = highscore;
+                if (!changed[userId]) {
+                    changed[userId] = true;
+                    changedUsers[numberOfChangedUsers++] = userId;
+                }
+            }
+            if ((i + 1) % flushSize == 0) {
+                flushHighScores(p, highscores, changed, changedUsers, numberOfChangedUsers);
+                numberOfChangedUsers = 0;
+            }
+        }
+        flushHighScores(p, highscores, changed, changedUsers, numberOfChangedUsers);
+        System.out.println("Imported user scores and updated high scores in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Only send the high scores that changed since the previous flush
+    private void flushHighScores(Pipeline p, int[] highscores, boolean[] changed, int[] changedUsers, int numberOfChangedUsers) {
+        for (int i = 0; i < numberOfChangedUsers; i++) {
+            int userId = changedUsers[i];
+            String userKey = "user" + ":" + userId;
+            p.setex(userKey + ":" + "highscore", 24 * 60 * 60, highscores[userId] + "");
+            invalidateNearCacheHighScore(userId);
+            p.zadd("highscores", highscores[userId], userKey);
+            changed[userId] = false;
+        }
+        sync(p);
+    }
+
+    // Verify the overall high scores against a full rescan of the user scores, returning the number of mismatches
+    public int verifyHighScores() {
+        long start = System.currentTimeMillis();
+        Pipeline p = jedis.pipelined();
+        List<Response<List<String>>> scores = new ArrayList<Response<List<String>>>(numberOfUsers);
+        List<Response<Double>> highscores = new ArrayList<Response<Double>>(numberOfUsers);
+        for (int i = 0; i < numberOfUsers; i++) {
+            scores.add(p.lrange("user" + ":" + i + ":" + "scores", 0, -1));
+            highscores.add(p.zscore("highscores", "user" + ":" + i));
+        }
+        sync(p);
+        int mismatches = 0;
+        for (int i = 0; i < numberOfUsers; i++) {
+            List<String> userScores = scores.get(i).get();
+            Double highscore = highscores.get(i).get();
+            if (userScores.isEmpty()) {
+                continue;
+            }
+            int expectedHighscore = 0;
+            for (String score : userScores) {
+                int currentScore = Integer.parseInt(score);
+                if (currentScore > expectedHighscore) {
+                    expectedHighscore = currentScore;
+                }
+            }
+            if (highscore == null || highscore.intValue() != expectedHighscore) {
+                mismatches++;
+            }
+        }
+        System.out.println(mismatches + " mismatching high scores found in " + (System.currentTimeMillis() - start) + " ms");
+        return mismatches;
+    }
+
+    // Import random user scores using multiple workers, each with its own pooled connection and bounded pipeline. The scores are
+    // read once and handed out in batches, each worker storing the scores of a contiguous range of users
+    public void importUserScoresParallel(int numberOfThreads, int flushSize) throws InterruptedException, ExecutionException {
+        if (flushSize <= 0) {
+            throw new IllegalArgumentException("Flush size should be positive, got " + flushSize);
+        }
+        HeapUsage.resetPeakHeapUsage();
+        long start = System.currentTimeMillis();
+        // Each score results in two commands, so a batch of user and score pairs fills the pipeline up to the flush size
+        int batchLength = 2 * Math.max(flushSize / 2, 1);
+        int usersPerWorker = Math.max((numberOfUsers + numberOfThreads - 1) / numberOfThreads, 1);
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        try {
+            List<BlockingQueue<int[]>> queues = new ArrayList<BlockingQueue<int[]>>(numberOfThreads);
+            List<Future<?>> workers = new ArrayList<Future<?>>(numberOfThreads);
+            for (int i = 0; i < numberOfThreads; i++) {
+                // A bounded queue makes the reader wait when a worker can't keep up
+                final BlockingQueue<int[]> queue = new ArrayBlockingQueue<int[]>(4);
+                queues.add(queue);
+                workers.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws InterruptedException {
+                        importUserScoreBatches(queue);
+                        return null;
+                    }
+                }));
+            }
+            int[][] batches = new int[numberOfThreads][batchLength];
+            int[] batchSizes = new int[numberOfThreads];
+            for (long i = 0; i < dataset.getNumberOfScores(); i++) {
+                // The scores of a user always go to the same worker, so they are written in order
+                int userId = dataset.getScoreUser(i);
+                int worker = userId / usersPerWorker;
+                batches[worker][batchSizes[worker]++] = userId;
+                batches[worker][batchSizes[worker]++] = dataset.getScore(i);
+                if (batchSizes[worker] == batchLength) {
+                    handOver(queues.get(worker), workers.get(worker), batches[worker]);
+                    batches[worker] = new int[batchLength];
+                    batchSizes[worker] = 0;
+                }
+            }
+            for (int i = 0; i < numberOfThreads; i++) {
+                if (batchSizes[i] > 0) {
+                    handOver(queues.get(i), workers.get(i), Arrays.copyOf(batches[i], batchSizes[i]));
+                }
+                // An empty batch marks the end of the scores
+                handOver(queues.get(i), workers.get(i), new int[0]);
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        }
+        finally {
+            // Interrupts the workers still waiting for a batch when reading the scores failed
+            executor.shutdownNow();
+        }
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+        // Each score results in an lpush and an ltrim command
+        System.out.println("Imported user scores with " + numberOfThreads + " threads and flush size " + flushSize + " in " + duration + " ms (" +
+                (2L * dataset.getNumberOfScores() * 1000 / duration) + " commands/s, peak heap " + HeapUsage.getPeakHeapUsage() / (1024 * 1024) + " MB)");
+    }
+
+    // Hand a batch of scores to a worker, rethrowing the failure of the worker instead of waiting on its full queue
+    private static void handOver(BlockingQueue<int[]> queue, Future<?> worker, int[] batch) throws InterruptedException, ExecutionException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (worker.isDone()) {
+                worker.get();
+            }
+        }
+    }
+
+    // Store batches of user and score pairs, up to the empty batch at the end
+    private void importUserScoreBatches(BlockingQueue<int[]> batches) throws InterruptedException {
+        Jedis connection = pool.getResource();
+        try {
+            Pipeline p = connection.pipelined();
+            for (int[] batch = batches.take(); batch.length > 0; batch = batches.take()) {
+                for (int i = 0; i < batch.length; i += 2) {
+                    String userScoresKey = "user" + ":" + batch[i] + ":" + "scores";
+                    p.lpush(userScoresKey, batch[i + 1] + "");
+                    p.ltrim(userScoresKey, 0, numberOfRecentScores - 1);
+                }
+                // Wait for the replies of each batch, instead of buffering all of them
+                sync(p);
+            }
+            pool.returnResource(connection);
+        }
+        catch (InterruptedException e) {
+            // Interrupted while waiting for a batch, so there are no replies left on the connection
+            pool.returnResource(connection);
+            throw e;
+        }
+        catch (RuntimeException e) {
+            pool.returnBrokenResource(connection);
+            throw e;
+        }
     }
 
     // Update the high score of each user
     public void updateUserHighScores() {
+        long allocatedBytes = HeapUsage.getAllocatedBytes();
         long start = System.currentTimeMillis();
         // Find the high scores for each user
         for (int i = 0; i < numberOfUsers; i++) {
@@ -77,43 +459,261 @@ public class RedisExample {
             String userHighScoreKey = "user" + ":" + i + ":" + "highscore";
             jedis.set(userHighScoreKey, highscore + "");
             jedis.expire(userHighScoreKey, 24 * 60 * 60);
+            invalidateNearCache(userHighScoreKey);
+        }
+        System.out.println("Updated user high scores in " + (System.currentTimeMillis() - start) + " ms (" +
+                (HeapUsage.getAllocatedBytes() - allocatedBytes) / (1024 * 1024) + " MB allocated)");
+    }
+
+    // Update the high score of each user, using binary keys and parsing the scores straight from the returned bytes
+    public void updateUserHighScoresBinary() {
+        long allocatedBytes = HeapUsage.getAllocatedBytes();
+        long start = System.currentTimeMillis();
+        KeyBuffer userScoresKeys = new KeyBuffer("user:", ":scores", 10);
+        KeyBuffer userHighScoreKeys = new KeyBuffer("user:", ":highscore", 10);
+        KeyBuffer highScoreValues = new KeyBuffer("", "", 10);
+        for (int i = 0; i < numberOfUsers; i++) {
+            // An end index of -1 returns the whole list, so there's no need to ask for its length first
+            List<byte[]> scores = jedis.lrange(userScoresKeys.encode(i), 0, -1);
+            int highscore = 0;
+            for (byte[] score : scores) {
+                int currentScore = parseInt(score);
+                if (currentScore > highscore) {
+                    highscore = currentScore;
+                }
+            }
+            // Update the highscores of the user, but only store it for a day
+            byte[] userHighScoreKey = userHighScoreKeys.encode(i);
+            jedis.set(userHighScoreKey, highScoreValues.encode(highscore));
+            jedis.expire(userHighScoreKey, 24 * 60 * 60);
+            invalidateNearCacheHighScore(i);
         }
-        System.out.println("Updated user high scores in " + (System.currentTimeMillis() - start) + " ms");
+        System.out.println("Updated user high scores (binary) in " + (System.currentTimeMillis() - start) + " ms (" +
+                (HeapUsage.getAllocatedBytes() - allocatedBytes) / (1024 * 1024) + " MB allocated)");
     }
 
     // Update the total high scores overview
     public void updateHighScores() {
         long start = System.currentTimeMillis();
         for (int i = 0; i < numberOfUsers; i++) {
-            String userHighScoreKey = "user" + ":" + i + ":" + "highscore";
-            String userHighScore = jedis.get(userHighScoreKey);
-            if (userHighScore != null) {
-                jedis.zadd("highscores", Integer.parseInt(userHighScore), "user" + ":" + i);
-            }
+            final String userKey = "user" + ":" + i;
+            UPDATE_HIGH_SCORE.time(new OperationMetrics.Call<Void, RuntimeException>() {
+                public Void call() {
+                    String userHighScoreKey = userKey + ":" + "highscore";
+                    String userHighScore = nearCache != null ? nearCache.get(userHighScoreKey) : jedis.get(userHighScoreKey);
+                    if (userHighScore != null) {
+                        jedis.zadd("highscores", Integer.parseInt(userHighScore), userKey);
+                    }
+                    return null;
+                }
+            });
         }
         System.out.println("Updated overall high scores in " + (System.currentTimeMillis() - start) + " ms");
     }
 
+    // Update the high score of each user and the total high scores overview in a single pass, using a server-side script
+    public void updateHighScoresScripted(int batchSize) {
+        long start = System.currentTimeMillis();
+        String sha = jedis.scriptLoad(HIGHSCORES_SCRIPT);
+        Pipeline p = jedis.pipelined();
+        // Each script call handles a batch of users, the batches themselves are pipelined
+        for (int i = 0; i < numberOfUsers; i += batchSize) {
+            int end = Math.min(i + batchSize, numberOfUsers);
+            List<String> keys = new ArrayList<String>(2 * (end - i) + 1);
+            List<String> args = new ArrayList<String>(end - i + 1);
+            keys.add("highscores");
+            args.add(24 * 60 * 60 + "");
+            for (int j = i; j < end; j++) {
+                String userKey = "user" + ":" + j;
+                keys.add(userKey + ":" + "scores");
+                keys.add(userKey + ":" + "highscore");
+                args.add(userKey);
+                invalidateNearCache(userKey + ":" + "highscore");
+            }
+            p.evalsha(sha, keys, args);
+        }
+        sync(p);
+        System.out.println("Updated user and overall high scores in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    // Compare the scripted single pass with the two pass loop, returning the number of users whose high scores differ
+    public int verifyScriptedHighScores(int batchSize) {
+        updateUserHighScores();
+        updateHighScores();
+        List<String> expectedHighScores = readHighScores();
+        // Start the scripted pass from scratch, so it can't pass by leaving the results of the loop in place
+        Pipeline p = jedis.pipelined();
+        p.del("highscores");
+        for (int i = 0; i < numberOfUsers; i++) {
+            p.del("user" + ":" + i + ":" + "highscore");
+            invalidateNearCacheHighScore(i);
+        }
+        p.sync();
+        updateHighScoresScripted(batchSize);
+        List<String> highscores = readHighScores();
+        int mismatches = 0;
+        for (int i = 0; i < numberOfUsers; i++) {
+            if (!highscores.get(i).equals(expectedHighScores.get(i))) {
+                mismatches++;
+            }
+        }
+        System.out.println(mismatches + " users with different high scores after the scripted update");
+        return mismatches;
+    }
+
+    // The high score of each user, its overall high score and whether it expires
+    private List<String> readHighScores() {
+        Pipeline p = jedis.pipelined();
+        List<Response<String>> userHighScores = new ArrayList<Response<String>>(numberOfUsers);
+        List<Response<Double>> highscores = new ArrayList<Response<Double>>(numberOfUsers);
+        List<Response<Long>> expiries = new ArrayList<Response<Long>>(numberOfUsers);
+        for (int i = 0; i < numberOfUsers; i++) {
+            String userKey = "user" + ":" + i;
+            userHighScores.add(p.get(userKey + ":" + "highscore"));
+            highscores.add(p.zscore("highscores", userKey));
+            expiries.add(p.ttl(userKey + ":" + "highscore"));
+        }
+        p.sync();
+        List<String> result = new ArrayList<String>(numberOfUsers);
+        for (int i = 0; i < numberOfUsers; i++) {
+            result.add(userHighScores.get(i).get() + " " + highscores.get(i).get() + " " + (expiries.get(i).get() > 0));
+        }
+        return result;
+    }
+
+    // Get the data of a particular user
+    public Map<String, String> getUser(int userId) {
+        final String userKey = "user" + ":" + userId;
+        return GET_USER.time(new OperationMetrics.Call<Map<String, String>, RuntimeException>() {
+            public Map<String, String> call() {
+                return nearCache != null ? nearCache.hgetAll(userKey) : jedis.hgetAll(userKey);
+            }
+        });
+    }
+
+    // Read a user with a connection of the pool, so it can be called from multiple threads
+    public Map<String, String> readUser(final int userId) {
+        return GET_USER.time(new OperationMetrics.Call<Map<String, String>, RuntimeException>() {
+            public Map<String, String> call() {
+                Jedis connection = pool.getResource();
+                try {
+                    Map<String, String> user = connection.hgetAll("user" + ":" + userId);
+                    pool.returnResource(connection);
+                    return user;
+                }
+                catch (RuntimeException e) {
+                    pool.returnBrokenResource(connection);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    // Add a score of a user to its recent scores and raise its high scores when they are beaten, with a connection of
+    // the pool. The script makes the comparison and the update atomic, so concurrent scores can't lower a high score.
+    public void addScore(int userId, final int score) {
+        final String userKey = "user" + ":" + userId;
+        ADD_SCORE.time(new OperationMetrics.Call<Void, RuntimeException>() {
+            public Void call() {
+                Jedis connection = pool.getResource();
+                try {
+                    if (addScoreSha == null) {
+                        addScoreSha = connection.scriptLoad(ADD_SCORE_SCRIPT);
+                    }
+                    connection.evalsha(addScoreSha, Arrays.asList(userKey + ":" + "scores", userKey + ":" + "highscore", "highscores"),
+                            Arrays.asList(score + "", userKey, numberOfRecentScores + "", 24 * 60 * 60 + ""));
+                    pool.returnResource(connection);
+                    return null;
+                }
+                catch (RuntimeException e) {
+                    pool.returnBrokenResource(connection);
+                    throw e;
+                }
+            }
+        });
+        invalidateNearCache(userKey + ":" + "highscore");
+    }
+
+    // The rank of a user in the overall high scores, best first, with a connection of the pool
+    public Long getRank(final int userId) {
+        return GET_RANK.time(new OperationMetrics.Call<Long, RuntimeException>() {
+            public Long call() {
+                Jedis connection = pool.getResource();
+                try {
+                    Long rank = connection.zrevrank("highscores", "user" + ":" + userId);
+                    pool.returnResource(connection);
+                    return rank;
+                }
+                catch (RuntimeException e) {
+                    pool.returnBrokenResource(connection);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    // Print the near cache counters, to help sizing it
+    public void printNearCacheStatistics() {
+        if (nearCache != null) {
+            System.out.println("Near cache size " + nearCache.size() + ", hits " + nearCache.getHitCount() +
+                    ", misses " + nearCache.getMissCount() + ", evictions " + nearCache.getEvictionCount());
+        }
+    }
+
     // Some example queries to get scores
     public void getScores() {
         long start = System.currentTimeMillis();
         System.out.println("Top-100");
-        Set<Tuple> scores = jedis.zrevrangeByScoreWithScores("highscores",0,100);
+        Set<Tuple> scores = GET_SCORES.time(new OperationMetrics.Call<Set<Tuple>, RuntimeException>() {
+            public Set<Tuple> call() {
+                return jedis.zrevrangeByScoreWithScores("highscores",0,100);
+            }
+        });
+        Long rank = GET_RANK.time(new OperationMetrics.Call<Long, RuntimeException>() {
+            public Long call() {
+                return jedis.zrank("highscores", "user:1000");
+            }
+        });
         for (Tuple score : scores) {
             System.out.println(score.getElement() + " : " + score.getScore());
         }
-        System.out.println("Rank of user 1000 " + jedis.zrank("highscores", "user:1000"));
+        System.out.println("Rank of user 1000 " + rank);
         System.out.println("Executed rank queries in " + (System.currentTimeMillis() - start) + " ms");
     }
 
-    public static void main(String[] args) {
-        RedisExample example = new RedisExample();
+    // Usage: RedisExample [host] [number of users or dataset file]
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        Dataset dataset = DataGenerator.load(args.length > 1 ? args[1] : "10000");
+        RedisExample example = new RedisExample(args.length > 0 ? args[0] : "localhost", dataset);
+        MetricsReporter reporter = new MetricsReporter(new File("metrics"), 10, TimeUnit.SECONDS);
         // Import user data
         example.importUserData();
         example.importUserScores();
         example.updateUserHighScores();
+        // Compare the allocations with the binary code path
+        example.importUserScoresBinary();
+        example.updateUserHighScoresBinary();
         example.updateHighScores();
+        // Compare with the scripted single pass, which has to end up with the same high scores
+        example.verifyScriptedHighScores(100);
         example.getScores();
+        // Repeated leaderboard refreshes are served from the near cache
+        example.enableNearCache(2 * example.numberOfUsers);
+        example.updateHighScores();
+        example.updateHighScores();
+        example.printNearCacheStatistics();
+        // Maintain the high scores while importing, instead of rescanning afterwards
+        example.importUserScoresIncremental(10000);
+        example.verifyHighScores();
+        example.getScores();
+        // Compare the parallel loader for a number of configurations
+        for (int numberOfThreads : new int[] { 1, 2, 4, 8 }) {
+            for (int flushSize : new int[] { 1000, 10000, 100000 }) {
+                example.importUserScoresParallel(numberOfThreads, flushSize);
+            }
+        }
+        reporter.close();
+        example.close();
     }
 
 }
@@ -0,0 +1,45 @@
+package sai.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Heap usage of the examples as reported by the jvm: the bytes allocated by the current thread and the peak usage of
+ * the heap memory pools.
+ */
+public final class HeapUsage {
+
+    private HeapUsage() {
+    }
+
+    // Bytes allocated by the current thread so far, as reported by the HotSpot thread MXBean, or 0 on other jvms
+    public static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    public static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
+
+    // Sum of the peak usage of the heap pools since the last reset
+    public static long getPeakHeapUsage() {
+        long peakHeapUsage = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peakHeapUsage += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peakHeapUsage;
+    }
+
+}
@@ -0,0 +1,95 @@
+package sai.metrics;
+
+/**
+ * Counts latencies in nanoseconds in log-linear buckets, the same layout as HdrHistogram: values below 128 are counted
+ * exactly, larger values in 64 linear sub-buckets per power of two, which keeps the error below 1.6 percent for any
+ * value up to Long.MAX_VALUE in a fixed array of counts.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    static final int NUMBER_OF_COUNTS = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[NUMBER_OF_COUNTS];
+    private long totalCount;
+    private long maxValue;
+
+    // Index of the count a value is added to
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return bucket * SUB_BUCKET_HALF + (int) (value >>> bucket);
+    }
+
+    // Highest value that is added to the count at an index
+    static long highestValue(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int bucket = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << bucket) - 1;
+    }
+
+    public void record(long nanos) {
+        add(index(nanos), 1, nanos);
+    }
+
+    void add(int index, long count, long max) {
+        counts[index] += count;
+        totalCount += count;
+        maxValue = Math.max(maxValue, max);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < NUMBER_OF_COUNTS; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    // Latency in nanoseconds at a certain percentile, between 0 and 100
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max((long) Math.ceil(percentile / 100 * totalCount), 1);
+        long count = 0;
+        for (int i = 0; i < NUMBER_OF_COUNTS; i++) {
+            count += counts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(highestValue(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    // Mean latency in nanoseconds, taking the middle of each bucket
+    public double getMean() {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < NUMBER_OF_COUNTS; i++) {
+            if (counts[i] > 0) {
+                long lowestValue = i == 0 ? 0 : highestValue(i - 1) + 1;
+                total += counts[i] * (lowestValue + highestValue(i)) / 2.0;
+            }
+        }
+        return total / totalCount;
+    }
+
+}
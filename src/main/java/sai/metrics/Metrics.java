@@ -0,0 +1,49 @@
+package sai.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the metrics of all operations. Each operation is registered as an mbean under sai.metrics when it is
+ * first used.
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+    private Metrics() {
+    }
+
+    // The metrics of an operation, named after the store and the operation, e.g. redis.getUser
+    public static OperationMetrics operation(String name) {
+        OperationMetrics metrics = operations.get(name);
+        if (metrics == null) {
+            OperationMetrics created = new OperationMetrics(name);
+            metrics = operations.putIfAbsent(name, created);
+            if (metrics == null) {
+                metrics = created;
+                register(created);
+            }
+        }
+        return metrics;
+    }
+
+    public static Collection<OperationMetrics> operations() {
+        return new ArrayList<OperationMetrics>(operations.values());
+    }
+
+    private static void register(OperationMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("sai.metrics:type=Operation,name=" + ObjectName.quote(metrics.getName())));
+        }
+        catch (JMException e) {
+            System.err.println("Could not register metrics of " + metrics.getName() + " in jmx: " + e.getMessage());
+        }
+    }
+
+}
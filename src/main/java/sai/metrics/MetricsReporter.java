@@ -0,0 +1,96 @@
+package sai.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a snapshot of the metrics of all operations to a directory: a line per operation is appended to
+ * metrics.csv, and metrics.json is replaced by the latest snapshot. Latencies are written in microseconds.
+ */
+public class MetricsReporter {
+
+    private static final double[] PERCENTILES = new double[] { 50, 90, 99, 99.9 };
+
+    private final File csvFile;
+    private final File jsonFile;
+    // A daemon thread, so a reporter that is never closed does not keep the JVM running
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public MetricsReporter(File directory, long period, TimeUnit unit) {
+        directory.mkdirs();
+        this.csvFile = new File(directory, "metrics.csv");
+        this.jsonFile = new File(directory, "metrics.json");
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report();
+            }
+        }, period, period, unit);
+    }
+
+    // Write a snapshot of the metrics of all operations
+    public synchronized void report() {
+        long timestamp = System.currentTimeMillis();
+        StringBuilder csv = new StringBuilder();
+        StringBuilder json = new StringBuilder("{\"timestamp\":").append(timestamp).append(",\"operations\":[");
+        boolean first = true;
+        for (OperationMetrics operation : Metrics.operations()) {
+            LatencyHistogram histogram = operation.getHistogram();
+            csv.append(timestamp).append(',').append(operation.getName()).append(',').append(histogram.getTotalCount()).append(',')
+                    .append(operation.getErrors()).append(',').append(operation.getBytes()).append(',').append(format(histogram.getMean()));
+            json.append(first ? "" : ",").append("{\"name\":\"").append(operation.getName()).append("\",\"count\":").append(histogram.getTotalCount())
+                    .append(",\"errors\":").append(operation.getErrors()).append(",\"bytes\":").append(operation.getBytes())
+                    .append(",\"mean\":").append(format(histogram.getMean()));
+            for (double percentile : PERCENTILES) {
+                String value = format(histogram.getValueAtPercentile(percentile));
+                csv.append(',').append(value);
+                json.append(",\"p").append(String.valueOf(percentile).replace(".0", "").replace('.', '_')).append("\":").append(value);
+            }
+            csv.append(',').append(format(histogram.getMaxValue())).append('\n');
+            json.append(",\"max\":").append(format(histogram.getMaxValue())).append('}');
+            first = false;
+        }
+        json.append("]}\n");
+        try {
+            boolean header = !csvFile.exists();
+            write(csvFile, (header ? "timestamp,operation,count,errors,bytes,mean,p50,p90,p99,p99_9,max\n" : "") + csv, true);
+            write(jsonFile, json.toString(), false);
+        }
+        catch (IOException e) {
+            System.err.println("Could not write metrics: " + e.getMessage());
+        }
+    }
+
+    private String format(double nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000);
+    }
+
+    private void write(File file, String content, boolean append) throws IOException {
+        Writer writer = new FileWriter(file, append);
+        try {
+            writer.write(content);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    // Stop reporting, after writing a last snapshot
+    public void close() {
+        scheduler.shutdown();
+        report();
+    }
+
+}
@@ -0,0 +1,188 @@
+package sai.metrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies, errors and bytes of one operation. Each thread records into its own recorder, which only that thread
+ * writes to, so recording needs no locks or compare-and-set. The recorders are merged when the metrics are read. The
+ * recorders of threads that finished are folded into a single retired recorder, so short-lived thread pools don't make
+ * the number of recorders grow.
+ *
+ * Usage: metrics.time(new OperationMetrics.Call<T, E>() { public T call() throws E { ... } });
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+
+    private final String name;
+    // The recorders of the live threads, and the counts of the threads that finished, guarded by this
+    private final List<Recorder> recorders = new ArrayList<Recorder>();
+    private final Recorder retired = new Recorder(null);
+    private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+        protected Recorder initialValue() {
+            Recorder recorder = new Recorder(Thread.currentThread());
+            synchronized (OperationMetrics.this) {
+                retireFinishedThreads();
+                recorders.add(recorder);
+            }
+            return recorder;
+        }
+    };
+
+    // A call to a store, throwing the same checked exceptions as the store itself
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    // Counts written by a single thread with ordered stores, and read by any thread
+    private static class Recorder {
+
+        private final Thread owner;
+        private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.NUMBER_OF_COUNTS);
+        // Maximum latency, number of errors and number of bytes
+        private final AtomicLongArray totals = new AtomicLongArray(3);
+
+        Recorder(Thread owner) {
+            this.owner = owner;
+        }
+
+        void record(long nanos, long bytes) {
+            int index = LatencyHistogram.index(nanos);
+            counts.lazySet(index, counts.get(index) + 1);
+            if (nanos > totals.get(0)) {
+                totals.lazySet(0, nanos);
+            }
+            if (bytes != 0) {
+                totals.lazySet(2, totals.get(2) + bytes);
+            }
+        }
+
+        void error() {
+            totals.lazySet(1, totals.get(1) + 1);
+        }
+
+        // Add the counts of a recorder that is no longer written to
+        void add(Recorder other) {
+            for (int i = 0; i < LatencyHistogram.NUMBER_OF_COUNTS; i++) {
+                long count = other.counts.get(i);
+                if (count > 0) {
+                    counts.lazySet(i, counts.get(i) + count);
+                }
+            }
+            totals.lazySet(0, Math.max(totals.get(0), other.totals.get(0)));
+            totals.lazySet(1, totals.get(1) + other.totals.get(1));
+            totals.lazySet(2, totals.get(2) + other.totals.get(2));
+        }
+
+    }
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Record the latency of a call, and count it as an error when it throws
+    public <T, E extends Exception> T time(Call<T, E> call) throws E {
+        return time(0, call);
+    }
+
+    // Record the latency of a call that reads or writes a number of bytes, which are only counted when it succeeds
+    public <T, E extends Exception> T time(long bytes, Call<T, E> call) throws E {
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            T result = call.call();
+            succeeded = true;
+            return result;
+        }
+        finally {
+            Recorder recorder = this.recorder.get();
+            if (!succeeded) {
+                recorder.error();
+            }
+            recorder.record(System.nanoTime() - start, succeeded ? bytes : 0);
+        }
+    }
+
+    // Fold the recorders of the threads that finished into the retired one, they won't be written to anymore
+    private void retireFinishedThreads() {
+        for (Iterator<Recorder> it = recorders.iterator(); it.hasNext(); ) {
+            Recorder recorder = it.next();
+            if (!recorder.owner.isAlive()) {
+                retired.add(recorder);
+                it.remove();
+            }
+        }
+    }
+
+    // The retired recorder followed by the recorders of the live threads, to be merged while holding the lock
+    private List<Recorder> getRecorders() {
+        retireFinishedThreads();
+        List<Recorder> all = new ArrayList<Recorder>(recorders.size() + 1);
+        all.add(retired);
+        all.addAll(recorders);
+        return all;
+    }
+
+    // Number of threads that have a recorder of their own
+    synchronized int getNumberOfRecorders() {
+        retireFinishedThreads();
+        return recorders.size();
+    }
+
+    // Merge the recorders of all threads
+    public synchronized LatencyHistogram getHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (Recorder recorder : getRecorders()) {
+            long max = recorder.totals.get(0);
+            for (int i = 0; i < LatencyHistogram.NUMBER_OF_COUNTS; i++) {
+                long count = recorder.counts.get(i);
+                if (count > 0) {
+                    histogram.add(i, count, max);
+                }
+            }
+        }
+        return histogram;
+    }
+
+    public long getCount() {
+        return getHistogram().getTotalCount();
+    }
+
+    public synchronized long getErrors() {
+        long errors = 0;
+        for (Recorder recorder : getRecorders()) {
+            errors += recorder.totals.get(1);
+        }
+        return errors;
+    }
+
+    public synchronized long getBytes() {
+        long bytes = 0;
+        for (Recorder recorder : getRecorders()) {
+            bytes += recorder.totals.get(2);
+        }
+        return bytes;
+    }
+
+    public double getMeanMillis() {
+        return getHistogram().getMean() / 1000000.0;
+    }
+
+    public double getMedianMillis() {
+        return getHistogram().getValueAtPercentile(50) / 1000000.0;
+    }
+
+    public double get99thPercentileMillis() {
+        return getHistogram().getValueAtPercentile(99) / 1000000.0;
+    }
+
+    public double getMaxMillis() {
+        return getHistogram().getMaxValue() / 1000000.0;
+    }
+
+}
@@ -0,0 +1,24 @@
+package sai.metrics;
+
+/**
+ * The metrics of an operation as exposed over jmx.
+ */
+public interface OperationMetricsMXBean {
+
+    String getName();
+
+    long getCount();
+
+    long getErrors();
+
+    long getBytes();
+
+    double getMeanMillis();
+
+    double getMedianMillis();
+
+    double get99thPercentileMillis();
+
+    double getMaxMillis();
+
+}
@@ -0,0 +1,41 @@
+package sai.column;
+
+import com.eaio.uuid.UUID;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeUUIDsTest {
+
+    private final long millis = 1380000000000L;
+
+    @Test
+    public void createdUuidsFallWithinTheirMillisecond() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            UUID uuid = TimeUUIDs.create(millis, random);
+            assertEquals(millis, TimeUUIDs.toMillis(uuid));
+            assertTrue(TimeUUIDs.BY_TIME.compare(TimeUUIDs.startOf(millis), uuid) <= 0);
+            assertTrue(TimeUUIDs.BY_TIME.compare(uuid, TimeUUIDs.endOf(millis)) <= 0);
+        }
+    }
+
+    @Test
+    public void firstTickOfMillisecondIsNotBeforeStart() {
+        // The uuid generator sets the variant bits, so the clock sequence starts with a negative byte
+        UUID first = new UUID(TimeUUIDs.startOf(millis).getTime(), 0x8000000000000000L);
+        assertTrue(TimeUUIDs.BY_TIME.compare(TimeUUIDs.startOf(millis), first) <= 0);
+        UUID last = new UUID(TimeUUIDs.endOf(millis).getTime(), 0xBFFFFFFFFFFFFFFFL);
+        assertTrue(TimeUUIDs.BY_TIME.compare(last, TimeUUIDs.endOf(millis)) <= 0);
+    }
+
+    @Test
+    public void neighbouringMillisecondsDoNotOverlap() {
+        assertTrue(TimeUUIDs.BY_TIME.compare(TimeUUIDs.endOf(millis - 1), TimeUUIDs.startOf(millis)) < 0);
+        assertTrue(TimeUUIDs.BY_TIME.compare(TimeUUIDs.endOf(millis), TimeUUIDs.startOf(millis + 1)) < 0);
+    }
+
+}
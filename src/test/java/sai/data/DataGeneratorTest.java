@@ -0,0 +1,87 @@
+package sai.data;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DataGeneratorTest {
+
+    // More users than fit in a single chunk, so the chunks are spread over the threads
+    private static final int NUMBER_OF_USERS = 150000;
+
+    @Test
+    public void sameSeedGivesSameDatasetForAnyNumberOfThreads() throws Exception {
+        Dataset expected = new DataGenerator(7, 1).generate(NUMBER_OF_USERS);
+        for (int numberOfThreads : new int[] { 2, 3, 8 }) {
+            assertSameDataset(expected, new DataGenerator(7, numberOfThreads).generate(NUMBER_OF_USERS));
+        }
+    }
+
+    @Test
+    public void differentSeedsGiveDifferentDatasets() throws Exception {
+        Dataset dataset1 = new DataGenerator(1).generate(1000);
+        Dataset dataset2 = new DataGenerator(2).generate(1000);
+        int sameAges = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (dataset1.getAge(i) == dataset2.getAge(i)) {
+                sameAges++;
+            }
+        }
+        assertTrue(sameAges < 100);
+    }
+
+    @Test
+    public void datasetHasTheProportionsOfTheExamples() throws Exception {
+        Dataset dataset = new DataGenerator(42).generate(NUMBER_OF_USERS);
+        assertEquals(NUMBER_OF_USERS, dataset.getNumberOfTweets());
+        assertEquals(100L * NUMBER_OF_USERS, dataset.getNumberOfScores());
+        // 0 to 9 followers and 0 to 20 friends per user
+        assertEquals(4.5, dataset.getNumberOfFollowerEdges() / (double) NUMBER_OF_USERS, 0.05);
+        assertEquals(10.0, dataset.getNumberOfFriendEdges() / (double) NUMBER_OF_USERS, 0.05);
+        for (int i = 0; i < NUMBER_OF_USERS; i++) {
+            assertTrue(dataset.getNumberOfFollowers(i) < 10);
+            assertTrue(dataset.getNumberOfFriends(i) <= 20);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyFollowersAreRejected() throws Exception {
+        new DataGenerator(42).generate(300, Integer.MAX_VALUE, 10, 1, 0);
+    }
+
+    @Test
+    public void writtenDatasetReadsBackInWindows() throws Exception {
+        // Few users, the scores are mapped with a mapping per window
+        Dataset expected = new DataGenerator(42).generate(100);
+        File file = File.createTempFile("dataset", ".bin");
+        try {
+            expected.write(file);
+            assertSameDataset(expected, Dataset.read(file));
+            // Small windows, so the arrays span many of them
+            assertSameDataset(expected, Dataset.read(file, 4096));
+            assertSameDataset(expected, Dataset.read(file, 12));
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private void assertSameDataset(Dataset expected, Dataset actual) {
+        int[][] expectedArrays = expected.arrays();
+        int[][] actualArrays = actual.arrays();
+        assertEquals(expectedArrays.length, actualArrays.length);
+        for (int i = 0; i < expectedArrays.length; i++) {
+            assertArrayEquals(expectedArrays[i], actualArrays[i]);
+        }
+        assertEquals(expected.getNumberOfScores(), actual.getNumberOfScores());
+        for (long i = 0; i < expected.getNumberOfScores(); i++) {
+            assertEquals(expected.getScoreUser(i), actual.getScoreUser(i));
+            assertEquals(expected.getScore(i), actual.getScore(i));
+        }
+    }
+
+}
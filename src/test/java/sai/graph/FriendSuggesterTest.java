@@ -0,0 +1,123 @@
+package sai.graph;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FriendSuggesterTest {
+
+    private static final RelationshipType FRIEND = DynamicRelationshipType.withName("is_friend");
+    private static final int NUMBER_OF_NODES = 1000;
+
+    private File storeDir;
+    private GraphDatabaseService graph;
+    private Node[] nodes;
+
+    @Before
+    public void setUp() throws Exception {
+        storeDir = File.createTempFile("graph", "");
+        storeDir.delete();
+        graph = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir.getPath());
+        Random random = new Random(42);
+        Transaction t = graph.beginTx();
+        try {
+            nodes = new Node[NUMBER_OF_NODES];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = graph.createNode();
+                // Names sort in the opposite order of the node ids, so a tie-break on name would show
+                nodes[i].setProperty("name", "user" + (NUMBER_OF_NODES - i));
+            }
+            // Few friends each, so many candidates tie on the number of mutual friends
+            for (int i = 0; i < 4 * NUMBER_OF_NODES; i++) {
+                int from = random.nextInt(NUMBER_OF_NODES);
+                int to = random.nextInt(NUMBER_OF_NODES);
+                if (from != to) {
+                    nodes[from].createRelationshipTo(nodes[to], FRIEND);
+                }
+            }
+            // A user with enough friends of friends to grow the map of candidates
+            for (int i = 1; i <= 100; i++) {
+                nodes[0].createRelationshipTo(nodes[i * 7], FRIEND);
+            }
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        graph.shutdown();
+        FileUtils.deleteRecursively(storeDir);
+    }
+
+    @Test
+    public void suggestionsMatchCypherQuery() {
+        ExecutionEngine cypher = new ExecutionEngine(graph);
+        // A single suggester for all users, so the maps are reused between queries
+        FriendSuggester suggester = new FriendSuggester(graph, FRIEND);
+        Transaction t = graph.beginTx();
+        try {
+            for (int user : new int[] { 0, 1, 2, 3, 500, 0 }) {
+                for (int limit : new int[] { 1, 10, 1000 }) {
+                    List<String> expected = cypherSuggestions(cypher, nodes[user].getId(), limit);
+                    assertEquals(expected, toStrings(suggester.suggest(nodes[user].getId(), limit)));
+                }
+            }
+            assertTrue(suggester.suggest(nodes[0].getId(), 1000).size() > 512);
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimitIsRejected() {
+        Transaction t = graph.beginTx();
+        try {
+            new FriendSuggester(graph, FRIEND).suggest(nodes[0].getId(), -1);
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    private List<String> cypherSuggestions(ExecutionEngine cypher, long userNode, int limit) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("id", userNode);
+        parameters.put("limit", limit);
+        List<String> suggestions = new ArrayList<String>();
+        for (Map<String, Object> row : cypher.execute(Neo4JExample.FRIEND_SUGGESTIONS_QUERY, parameters)) {
+            suggestions.add(row.get("name") + ":" + row.get("mutual_friends"));
+        }
+        return suggestions;
+    }
+
+    private List<String> toStrings(List<FriendSuggestion> suggestions) {
+        List<String> strings = new ArrayList<String>(suggestions.size());
+        for (FriendSuggestion suggestion : suggestions) {
+            strings.add(suggestion.getName() + ":" + suggestion.getMutualFriends());
+        }
+        return strings;
+    }
+
+}
@@ -0,0 +1,102 @@
+package sai.graph;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class GraphProjectionTest {
+
+    private static final RelationshipType FRIEND = DynamicRelationshipType.withName("is_friend");
+    private static final RelationshipType OTHER = DynamicRelationshipType.withName("other");
+
+    private File storeDir;
+    private GraphDatabaseService graph;
+    private ForkJoinPool pool;
+    private GraphProjection projection;
+    private long a, b, c, d;
+
+    @Before
+    public void setUp() throws Exception {
+        storeDir = File.createTempFile("graph", "");
+        storeDir.delete();
+        graph = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir.getPath());
+        pool = new ForkJoinPool(2);
+        // The path a - b - c in either direction, and d without friends, only related by another type
+        Transaction t = graph.beginTx();
+        try {
+            Node nodeA = graph.createNode();
+            Node nodeB = graph.createNode();
+            Node nodeC = graph.createNode();
+            Node nodeD = graph.createNode();
+            nodeA.createRelationshipTo(nodeB, FRIEND);
+            nodeC.createRelationshipTo(nodeB, FRIEND);
+            nodeD.createRelationshipTo(nodeA, OTHER);
+            a = nodeA.getId();
+            b = nodeB.getId();
+            c = nodeC.getId();
+            d = nodeD.getId();
+            projection = GraphProjection.load(graph, FRIEND, pool);
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        graph.shutdown();
+        FileUtils.deleteRecursively(storeDir);
+    }
+
+    @Test
+    public void projectionHoldsEachRelationshipOfTheTypeTwice() {
+        // Node ids are used as indexes, the reference node of the store included
+        assertEquals(d + 1, projection.getNumberOfNodes());
+        assertEquals(4, projection.getNumberOfEntries());
+    }
+
+    @Test
+    public void eigenvectorCentralityOfAPath() {
+        // The principal eigenvector of the path is (1, sqrt(2), 1) / 2, a node without friends ends up at zero
+        double[] scores = projection.eigenvectorCentrality(1e-12, 1000);
+        assertEquals(0.5, scores[(int) a], 1e-6);
+        assertEquals(Math.sqrt(0.5), scores[(int) b], 1e-6);
+        assertEquals(0.5, scores[(int) c], 1e-6);
+        assertEquals(0, scores[(int) d], 1e-6);
+    }
+
+    @Test
+    public void pageRankOfAPathAndADanglingNode() {
+        // Solving the page rank equations with a damping of 0.85, where d and the reference node of the store are the
+        // nodes without friends: each of them gets the base score, a = c = 1.425 base / 0.2775 and b = base + 1.7 a
+        int numberOfNodes = projection.getNumberOfNodes();
+        int dangling = numberOfNodes - 3;
+        double base = 0.15 / (numberOfNodes - 0.85 * dangling);
+        double end = 1.425 * base / 0.2775;
+        double[] scores = projection.pageRank(0.85, 1e-12, 1000);
+        assertEquals(end, scores[(int) a], 1e-9);
+        assertEquals(base + 1.7 * end, scores[(int) b], 1e-9);
+        assertEquals(end, scores[(int) c], 1e-9);
+        assertEquals(base, scores[(int) d], 1e-9);
+        double total = 0;
+        for (double score : scores) {
+            total += score;
+        }
+        assertEquals(1, total, 1e-9);
+    }
+
+}
@@ -0,0 +1,124 @@
+package sai.graph;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.traversal.Evaluators;
+import org.neo4j.kernel.Traversal;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KHopTraverserTest {
+
+    private static final RelationshipType FRIEND = DynamicRelationshipType.withName("is_friend");
+    private static final int NUMBER_OF_NODES = 2000;
+
+    private File storeDir;
+    private GraphDatabaseService graph;
+    private KHopTraverser sequential;
+    private KHopTraverser parallel;
+    private long startNode;
+
+    @Before
+    public void setUp() throws Exception {
+        storeDir = File.createTempFile("graph", "");
+        storeDir.delete();
+        graph = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir.getPath());
+        // A random graph with a few friends per node, so the frontier of the second hop is already large
+        Random random = new Random(42);
+        Transaction t = graph.beginTx();
+        try {
+            Node[] nodes = new Node[NUMBER_OF_NODES];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = graph.createNode();
+            }
+            for (int i = 0; i < 3 * NUMBER_OF_NODES; i++) {
+                nodes[random.nextInt(NUMBER_OF_NODES)].createRelationshipTo(nodes[random.nextInt(NUMBER_OF_NODES)], FRIEND);
+            }
+            startNode = nodes[0].getId();
+            t.success();
+        }
+        finally {
+            t.close();
+        }
+        sequential = new KHopTraverser(graph, FRIEND);
+        // A low threshold, so every frontier beyond the start node is expanded on the workers
+        parallel = new KHopTraverser(graph, FRIEND, 4, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sequential.close();
+        parallel.close();
+        graph.shutdown();
+        FileUtils.deleteRecursively(storeDir);
+    }
+
+    @Test
+    public void neighborhoodMatchesTraversalFramework() throws Exception {
+        Transaction t = graph.beginTx();
+        try {
+            for (int depth : new int[] { 2, 3 }) {
+                Set<Long> expected = traverse(depth);
+                assertEquals(expected, toSet(sequential.neighborhood(startNode, depth, Direction.BOTH, Integer.MAX_VALUE)));
+                assertArrayEquals(sequential.neighborhood(startNode, depth, Direction.BOTH, Integer.MAX_VALUE),
+                        parallel.neighborhood(startNode, depth, Direction.BOTH, Integer.MAX_VALUE));
+            }
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    @Test
+    public void limitedNeighborhoodIsAPrefixOfTheBreadthFirstOrder() throws Exception {
+        Transaction t = graph.beginTx();
+        try {
+            long[] all = sequential.neighborhood(startNode, 3, Direction.BOTH, Integer.MAX_VALUE);
+            int limit = all.length / 2;
+            assertTrue(limit > 2);
+            long[] expected = new long[limit];
+            System.arraycopy(all, 0, expected, 0, limit);
+            assertArrayEquals(expected, sequential.neighborhood(startNode, 3, Direction.BOTH, limit));
+            assertArrayEquals(expected, parallel.neighborhood(startNode, 3, Direction.BOTH, limit));
+        }
+        finally {
+            t.close();
+        }
+    }
+
+    // The ids of the nodes within a number of hops of the start node, found by the traversal framework
+    private Set<Long> traverse(int depth) {
+        Set<Long> nodes = new HashSet<Long>();
+        for (Path path : Traversal.description().breadthFirst().relationships(FRIEND, Direction.BOTH).evaluator(Evaluators.toDepth(depth))
+                .traverse(graph.getNodeById(startNode))) {
+            nodes.add(path.endNode().getId());
+        }
+        return nodes;
+    }
+
+    private Set<Long> toSet(long[] nodes) {
+        Set<Long> set = new HashSet<Long>();
+        for (long node : nodes) {
+            assertTrue("Node " + node + " found twice", set.add(node));
+        }
+        return set;
+    }
+
+}
@@ -0,0 +1,40 @@
+package sai.graph;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.impl.util.FileUtils;
+import sai.data.DataGenerator;
+
+import java.io.File;
+
+public class Neo4JExampleTest {
+
+    private File storeDir;
+    private Neo4JExample example;
+
+    @Before
+    public void setUp() throws Exception {
+        storeDir = File.createTempFile("graph", "");
+        storeDir.delete();
+        example = new Neo4JExample(storeDir.getPath(), new DataGenerator(42).generate(100));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        example.closeGraph();
+        FileUtils.deleteRecursively(storeDir);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void userImportRejectsChunkSizeOfZero() {
+        example.importUserData(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void relationshipImportRejectsNegativeChunkSize() {
+        example.importUserData();
+        example.importRelationshipData(-1);
+    }
+
+}
@@ -0,0 +1,55 @@
+package sai.keyvalue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NearCacheTest {
+
+    private RedisStandIn standIn;
+    private Jedis jedis;
+    private Jedis otherClient;
+    private NearCache nearCache;
+
+    @Before
+    public void setUp() throws Exception {
+        standIn = new RedisStandIn();
+        jedis = new Jedis("localhost", standIn.getPort());
+        otherClient = new Jedis("localhost", standIn.getPort());
+        nearCache = new NearCache(jedis, 100);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        jedis.disconnect();
+        otherClient.disconnect();
+        standIn.close();
+    }
+
+    @Test
+    public void keyWithoutExpiryStaysCached() {
+        otherClient.set("key", "first");
+        assertEquals("first", nearCache.get("key"));
+        otherClient.set("key", "second");
+        assertEquals("first", nearCache.get("key"));
+        assertEquals(1, nearCache.getHitCount());
+        assertEquals(1, nearCache.getMissCount());
+    }
+
+    @Test
+    public void missingKeyIsOnlyCachedBriefly() throws InterruptedException {
+        assertNull(nearCache.get("key"));
+        otherClient.set("key", "created");
+        assertNull(nearCache.get("key"));
+        Thread.sleep(NearCache.MISSING_KEY_TTL + 100);
+        assertEquals("created", nearCache.get("key"));
+        // Reading the expired entry counts as a miss, not a hit
+        assertEquals(1, nearCache.getHitCount());
+        assertEquals(2, nearCache.getMissCount());
+    }
+
+}
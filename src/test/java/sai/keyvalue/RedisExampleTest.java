@@ -0,0 +1,92 @@
+package sai.keyvalue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import sai.data.DataGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class RedisExampleTest {
+
+    private RedisStandIn standIn;
+    private RedisExample example;
+
+    @Before
+    public void setUp() throws Exception {
+        standIn = new RedisStandIn();
+        example = new RedisExample("localhost", standIn.getPort(), new DataGenerator(42).generate(1000));
+        example.importUserData();
+        example.importUserScores();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        example.close();
+        standIn.close();
+    }
+
+    @Test
+    public void scriptedHighScoresMatchTwoPassLoop() {
+        assertEquals(0, example.verifyScriptedHighScores(100));
+    }
+
+    @Test
+    public void scriptedHighScoresDoNotDependOnBatchSize() {
+        assertEquals(0, example.verifyScriptedHighScores(1));
+        assertEquals(0, example.verifyScriptedHighScores(1000));
+    }
+
+    @Test
+    public void incrementalHighScoresMatchRescan() {
+        // A small flush size flushes partway through the trimmed scores of a user, one larger than the dataset only at the end
+        for (int flushSize : new int[] { 7, 1000000 }) {
+            example.importUserScoresIncremental(flushSize);
+            assertEquals(0, example.verifyHighScores());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void incrementalImportRejectsFlushSizeOfZero() {
+        example.importUserScoresIncremental(0);
+    }
+
+    @Test
+    public void parallelImportKeepsScoresOfEachUserInOrder() throws Exception {
+        Jedis jedis = new Jedis("localhost", standIn.getPort());
+        try {
+            List<List<String>> expected = new ArrayList<List<String>>();
+            for (int i = 0; i < 1000; i++) {
+                expected.add(jedis.lrange("user:" + i + ":scores", 0, -1));
+                jedis.del("user:" + i + ":scores");
+            }
+            example.importUserScoresParallel(3, 7);
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(expected.get(i), jedis.lrange("user:" + i + ":scores", 0, -1));
+            }
+        }
+        finally {
+            jedis.disconnect();
+        }
+    }
+
+    @Test
+    public void addScoreOnlyRaisesHighScore() {
+        example.addScore(1, 200000000);
+        example.addScore(1, 5);
+        Jedis jedis = new Jedis("localhost", standIn.getPort());
+        try {
+            assertEquals(200000000, jedis.zscore("highscores", "user:1").intValue());
+            assertEquals("200000000", jedis.get("user:1:highscore"));
+            assertEquals("5", jedis.lrange("user:1:scores", 0, 0).get(0));
+        }
+        finally {
+            jedis.disconnect();
+        }
+    }
+
+}
@@ -0,0 +1,748 @@
+package sai.keyvalue;
+
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * In-process server speaking the Redis protocol, holding the strings, lists, hashes and sorted sets used by the examples
+ * in memory, so they can run without a Redis server. Commands are executed one at a time, like on a real server.
+ *
+ * Scripts run on an embedded Lua interpreter, with the same KEYS, ARGV and redis.call interface and the same conversions
+ * between Lua values and replies as on a real server, so the scripts of the examples are executed as they are.
+ */
+public class RedisStandIn implements Closeable {
+
+    // Keys and values are binary safe, every byte maps to exactly one char
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    // A status reply, as opposed to a bulk string
+    private static final class Status {
+
+        private final String message;
+
+        private Status(String message) {
+            this.message = message;
+        }
+
+    }
+
+    private static final Status OK = new Status("OK");
+    private static final byte[] END_OF_REPLIES = new byte[0];
+
+    private static final class RedisError extends RuntimeException {
+
+        private RedisError(String message) {
+            super(message);
+        }
+
+    }
+
+    // A member of a sorted set, ordered on score and then member
+    private static final class ScoredMember implements Comparable<ScoredMember> {
+
+        private final double score;
+        private final String member;
+
+        private ScoredMember(double score, String member) {
+            this.score = score;
+            this.member = member;
+        }
+
+        public int compareTo(ScoredMember o) {
+            int result = Double.compare(score, o.score);
+            return result != 0 ? result : member.compareTo(o.member);
+        }
+
+    }
+
+    private static final class SortedSet {
+
+        private final Map<String, Double> scores = new HashMap<String, Double>();
+        private final TreeSet<ScoredMember> members = new TreeSet<ScoredMember>();
+
+        // Whether the member is new
+        private boolean add(String member, double score) {
+            Double previousScore = scores.put(member, score);
+            if (previousScore != null) {
+                members.remove(new ScoredMember(previousScore, member));
+            }
+            members.add(new ScoredMember(score, member));
+            return previousScore == null;
+        }
+
+        private Long rank(String member) {
+            Double score = scores.get(member);
+            return score != null ? (long) members.headSet(new ScoredMember(score, member)).size() : null;
+        }
+
+    }
+
+    private final Map<String, Object> data = new HashMap<String, Object>();
+    private final Map<String, Long> expiries = new HashMap<String, Long>();
+    private final Map<String, LuaValue> scripts = new ConcurrentHashMap<String, LuaValue>();
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    private final Globals lua = JsePlatform.standardGlobals();
+
+    // Start listening on a free port of the loopback interface
+    public RedisStandIn() throws IOException {
+        this(0);
+    }
+
+    public RedisStandIn(int port) throws IOException {
+        LuaTable redis = new LuaTable();
+        redis.set("call", new RedisCall(false));
+        redis.set("pcall", new RedisCall(true));
+        lua.set("redis", redis);
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "redis-stand-in");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Runnable() {
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket connection : connections) {
+            connection.close();
+        }
+        executor.shutdown();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket connection = serverSocket.accept();
+                connection.setTcpNoDelay(true);
+                connections.add(connection);
+                executor.execute(new Runnable() {
+                    public void run() {
+                        serve(connection);
+                    }
+                });
+            }
+            catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    // Replies are queued for a separate writer, because clients pipeline many commands before they read any reply
+    private void serve(final Socket connection) {
+        final BlockingQueue<byte[]> replies = new LinkedBlockingQueue<byte[]>();
+        executor.execute(new Runnable() {
+            public void run() {
+                writeReplies(connection, replies);
+            }
+        });
+        try {
+            InputStream in = new BufferedInputStream(connection.getInputStream(), 1 << 16);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+            while (true) {
+                List<String> command = readCommand(in);
+                if (command == null) {
+                    break;
+                }
+                Object reply;
+                try {
+                    reply = execute(command);
+                }
+                catch (RedisError e) {
+                    reply = e;
+                }
+                catch (RuntimeException e) {
+                    // Wrong number or format of arguments
+                    reply = new RedisError(e.toString());
+                }
+                writeReply(out, reply);
+                if (command.get(0).equalsIgnoreCase("quit")) {
+                    break;
+                }
+                // Hand over the replies once all pipelined commands that already arrived are answered
+                if (in.available() == 0 || out.size() >= 1 << 16) {
+                    replies.add(out.toByteArray());
+                    out.reset();
+                }
+            }
+            replies.add(out.toByteArray());
+        }
+        catch (IOException e) {
+            // Closed or lost the connection
+        }
+        finally {
+            replies.add(END_OF_REPLIES);
+        }
+    }
+
+    // Write the queued replies until the end of the connection
+    private void writeReplies(Socket connection, BlockingQueue<byte[]> replies) {
+        try {
+            OutputStream out = connection.getOutputStream();
+            byte[] reply;
+            while ((reply = replies.take()) != END_OF_REPLIES) {
+                out.write(reply);
+            }
+        }
+        catch (IOException e) {
+            // Lost the connection
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            connections.remove(connection);
+            try {
+                connection.close();
+            }
+            catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+
+    // Read a command sent as an array of bulk strings, null at the end of the stream
+    private List<String> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        if (type != '*') {
+            throw new IOException("Unsupported request type " + (char) type);
+        }
+        int length = (int) readNumber(in);
+        List<String> command = new ArrayList<String>(length);
+        for (int i = 0; i < length; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            byte[] bytes = new byte[(int) readNumber(in)];
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read == -1) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+            in.read();
+            in.read();
+            command.add(new String(bytes, CHARSET));
+        }
+        return command;
+    }
+
+    // Read a number terminated by \r\n
+    private long readNumber(InputStream in) throws IOException {
+        long value = 0;
+        boolean negative = false;
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new EOFException();
+            }
+            if (c == '-') {
+                negative = true;
+            } else {
+                value = value * 10 + (c - '0');
+            }
+        }
+        in.read();
+        return negative ? -value : value;
+    }
+
+    private void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(CHARSET));
+        } else if (reply instanceof Status) {
+            out.write(("+" + ((Status) reply).message + "\r\n").getBytes(CHARSET));
+        } else if (reply instanceof RedisError) {
+            out.write(("-ERR " + ((RedisError) reply).getMessage() + "\r\n").getBytes(CHARSET));
+        } else if (reply instanceof Long) {
+            out.write((":" + reply + "\r\n").getBytes(CHARSET));
+        } else if (reply instanceof String) {
+            byte[] bytes = ((String) reply).getBytes(CHARSET);
+            out.write(("$" + bytes.length + "\r\n").getBytes(CHARSET));
+            out.write(bytes);
+            out.write("\r\n".getBytes(CHARSET));
+        } else if (reply instanceof List) {
+            List<?> elements = (List<?>) reply;
+            out.write(("*" + elements.size() + "\r\n").getBytes(CHARSET));
+            for (Object element : elements) {
+                writeReply(out, element);
+            }
+        } else {
+            throw new IllegalStateException("Unsupported reply " + reply);
+        }
+    }
+
+    // Execute a single command, scripts run their commands while holding the same lock
+    private synchronized Object execute(List<String> command) {
+        String name = command.get(0).toLowerCase();
+        List<String> args = command.subList(1, command.size());
+        if (name.equals("ping")) {
+            return new Status("PONG");
+        } else if (name.equals("quit") || name.equals("select")) {
+            return OK;
+        } else if (name.equals("flushdb") || name.equals("flushall")) {
+            data.clear();
+            expiries.clear();
+            return OK;
+        } else if (name.equals("del")) {
+            long removed = 0;
+            for (String key : args) {
+                if (lookup(key) != null) {
+                    data.remove(key);
+                    expiries.remove(key);
+                    removed++;
+                }
+            }
+            return removed;
+        } else if (name.equals("exists")) {
+            return lookup(args.get(0)) != null ? 1L : 0L;
+        } else if (name.equals("expire")) {
+            return expire(args.get(0), Long.parseLong(args.get(1)) * 1000);
+        } else if (name.equals("pexpire")) {
+            return expire(args.get(0), Long.parseLong(args.get(1)));
+        } else if (name.equals("ttl") || name.equals("pttl")) {
+            if (lookup(args.get(0)) == null) {
+                return -2L;
+            }
+            Long expiry = expiries.get(args.get(0));
+            if (expiry == null) {
+                return -1L;
+            }
+            long ttl = expiry - System.currentTimeMillis();
+            return name.equals("ttl") ? ttl / 1000 : ttl;
+        } else if (name.equals("get")) {
+            return string(args.get(0));
+        } else if (name.equals("set")) {
+            set(args.get(0), args.get(1));
+            for (int i = 2; i + 1 < args.size(); i += 2) {
+                if (args.get(i).equalsIgnoreCase("ex")) {
+                    expire(args.get(0), Long.parseLong(args.get(i + 1)) * 1000);
+                } else if (args.get(i).equalsIgnoreCase("px")) {
+                    expire(args.get(0), Long.parseLong(args.get(i + 1)));
+                } else {
+                    throw new RedisError("syntax error");
+                }
+            }
+            return OK;
+        } else if (name.equals("setex")) {
+            set(args.get(0), args.get(2));
+            expire(args.get(0), Long.parseLong(args.get(1)) * 1000);
+            return OK;
+        } else if (name.equals("hset") || name.equals("hmset")) {
+            Map<String, String> hash = hash(args.get(0), true);
+            long added = 0;
+            for (int i = 1; i + 1 < args.size(); i += 2) {
+                if (hash.put(args.get(i), args.get(i + 1)) == null) {
+                    added++;
+                }
+            }
+            return name.equals("hset") ? (Object) added : OK;
+        } else if (name.equals("hget")) {
+            Map<String, String> hash = hash(args.get(0), false);
+            return hash != null ? hash.get(args.get(1)) : null;
+        } else if (name.equals("hgetall")) {
+            Map<String, String> hash = hash(args.get(0), false);
+            List<String> reply = new ArrayList<String>();
+            if (hash != null) {
+                for (Map.Entry<String, String> field : hash.entrySet()) {
+                    reply.add(field.getKey());
+                    reply.add(field.getValue());
+                }
+            }
+            return reply;
+        } else if (name.equals("lpush") || name.equals("rpush")) {
+            List<String> list = list(args.get(0), true);
+            for (String value : args.subList(1, args.size())) {
+                if (name.equals("lpush")) {
+                    list.add(0, value);
+                } else {
+                    list.add(value);
+                }
+            }
+            return (long) list.size();
+        } else if (name.equals("llen")) {
+            List<String> list = list(args.get(0), false);
+            return list != null ? (long) list.size() : 0L;
+        } else if (name.equals("lrange")) {
+            List<String> list = list(args.get(0), false);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            int[] range = range(list.size(), Long.parseLong(args.get(1)), Long.parseLong(args.get(2)));
+            return new ArrayList<String>(list.subList(range[0], range[1]));
+        } else if (name.equals("ltrim")) {
+            List<String> list = list(args.get(0), false);
+            if (list != null) {
+                int[] range = range(list.size(), Long.parseLong(args.get(1)), Long.parseLong(args.get(2)));
+                list.subList(range[1], list.size()).clear();
+                list.subList(0, range[0]).clear();
+                if (list.isEmpty()) {
+                    data.remove(args.get(0));
+                    expiries.remove(args.get(0));
+                }
+            }
+            return OK;
+        } else if (name.equals("zadd")) {
+            SortedSet sortedSet = sortedSet(args.get(0), true);
+            long added = 0;
+            for (int i = 1; i + 1 < args.size(); i += 2) {
+                if (sortedSet.add(args.get(i + 1), parseScore(args.get(i)))) {
+                    added++;
+                }
+            }
+            return added;
+        } else if (name.equals("zscore")) {
+            SortedSet sortedSet = sortedSet(args.get(0), false);
+            Double score = sortedSet != null ? sortedSet.scores.get(args.get(1)) : null;
+            return score != null ? formatScore(score) : null;
+        } else if (name.equals("zcard")) {
+            SortedSet sortedSet = sortedSet(args.get(0), false);
+            return sortedSet != null ? (long) sortedSet.scores.size() : 0L;
+        } else if (name.equals("zrank") || name.equals("zrevrank")) {
+            SortedSet sortedSet = sortedSet(args.get(0), false);
+            Long rank = sortedSet != null ? sortedSet.rank(args.get(1)) : null;
+            return rank != null && name.equals("zrevrank") ? sortedSet.scores.size() - 1 - rank : rank;
+        } else if (name.equals("zrange") || name.equals("zrevrange")) {
+            SortedSet sortedSet = sortedSet(args.get(0), false);
+            if (sortedSet == null) {
+                return Collections.emptyList();
+            }
+            List<ScoredMember> members = new ArrayList<ScoredMember>(name.equals("zrange") ? sortedSet.members : sortedSet.members.descendingSet());
+            int[] range = range(members.size(), Long.parseLong(args.get(1)), Long.parseLong(args.get(2)));
+            return members(members.subList(range[0], range[1]), args.size() > 3 && args.get(3).equalsIgnoreCase("withscores"));
+        } else if (name.equals("zrangebyscore") || name.equals("zrevrangebyscore")) {
+            return rangeByScore(args, name.equals("zrevrangebyscore"));
+        } else if (name.equals("script")) {
+            if (args.get(0).equalsIgnoreCase("load")) {
+                return load(args.get(1));
+            } else if (args.get(0).equalsIgnoreCase("exists")) {
+                List<Long> reply = new ArrayList<Long>();
+                for (String sha : args.subList(1, args.size())) {
+                    reply.add(scripts.containsKey(sha) ? 1L : 0L);
+                }
+                return reply;
+            }
+            return OK;
+        } else if (name.equals("eval") || name.equals("evalsha")) {
+            LuaValue script = scripts.get(name.equals("eval") ? load(args.get(0)) : args.get(0));
+            if (script == null) {
+                throw new RedisError("NOSCRIPT No matching script");
+            }
+            int numberOfKeys = Integer.parseInt(args.get(1));
+            lua.set("KEYS", toLua(args.subList(2, 2 + numberOfKeys)));
+            lua.set("ARGV", toLua(args.subList(2 + numberOfKeys, args.size())));
+            try {
+                return toReply(script.call());
+            }
+            catch (LuaError e) {
+                throw new RedisError("Error running script: " + e.getMessage());
+            }
+        }
+        throw new RedisError("unknown command '" + name + "'");
+    }
+
+    // Compile a script and make it known under its sha1
+    private String load(String source) {
+        String sha = sha1(source);
+        if (!scripts.containsKey(sha)) {
+            try {
+                scripts.put(sha, lua.load(new ByteArrayInputStream(source.getBytes(CHARSET)), "@user_script", "t", lua));
+            }
+            catch (LuaError e) {
+                throw new RedisError("Error compiling script: " + e.getMessage());
+            }
+        }
+        return sha;
+    }
+
+    // redis.call raises the errors of a command as a Lua error, redis.pcall returns them as an error table
+    private final class RedisCall extends VarArgFunction {
+
+        private final boolean protect;
+
+        private RedisCall(boolean protect) {
+            this.protect = protect;
+        }
+
+        public Varargs invoke(Varargs args) {
+            List<String> command = new ArrayList<String>(args.narg());
+            for (int i = 1; i <= args.narg(); i++) {
+                if (!args.isstring(i)) {
+                    throw new LuaError("Lua redis() command arguments must be strings or integers");
+                }
+                command.add(toJava(args.checkstring(i)));
+            }
+            try {
+                return toLua(execute(command));
+            }
+            catch (RedisError e) {
+                if (!protect) {
+                    throw new LuaError(e.getMessage());
+                }
+                LuaTable error = new LuaTable();
+                error.set("err", e.getMessage());
+                return error;
+            }
+        }
+
+    }
+
+    // Replies to Lua values: integers to numbers, bulk strings to strings, nil to false, status and errors to tables
+    private LuaValue toLua(Object reply) {
+        if (reply == null) {
+            return LuaValue.FALSE;
+        } else if (reply instanceof Long) {
+            return LuaValue.valueOf((Long) reply);
+        } else if (reply instanceof String) {
+            return LuaString.valueOf(((String) reply).getBytes(CHARSET));
+        } else if (reply instanceof Status) {
+            LuaTable status = new LuaTable();
+            status.set("ok", ((Status) reply).message);
+            return status;
+        }
+        LuaTable table = new LuaTable();
+        int index = 1;
+        for (Object element : (List<?>) reply) {
+            table.set(index++, toLua(element));
+        }
+        return table;
+    }
+
+    // Lua values to replies: numbers are truncated to integers, true becomes 1, false and nil become nil and arrays
+    // end at their first nil
+    private Object toReply(LuaValue value) {
+        if (value.type() == LuaValue.TNUMBER) {
+            return (long) value.todouble();
+        } else if (value.isstring()) {
+            return toJava(value.checkstring());
+        } else if (value.isboolean()) {
+            return value.toboolean() ? 1L : null;
+        } else if (value.istable()) {
+            if (value.get("err").isstring()) {
+                throw new RedisError(value.get("err").tojstring());
+            } else if (value.get("ok").isstring()) {
+                return new Status(value.get("ok").tojstring());
+            }
+            List<Object> reply = new ArrayList<Object>();
+            for (int i = 1; !value.get(i).isnil(); i++) {
+                reply.add(toReply(value.get(i)));
+            }
+            return reply;
+        }
+        return null;
+    }
+
+    private String toJava(LuaString value) {
+        byte[] bytes = new byte[value.length()];
+        value.copyInto(0, bytes, 0, bytes.length);
+        return new String(bytes, CHARSET);
+    }
+
+    // The value of a key, removing it first if it expired
+    private Object lookup(String key) {
+        Long expiry = expiries.get(key);
+        if (expiry != null && expiry <= System.currentTimeMillis()) {
+            data.remove(key);
+            expiries.remove(key);
+        }
+        return data.get(key);
+    }
+
+    private long expire(String key, long millis) {
+        if (lookup(key) == null) {
+            return 0;
+        }
+        expiries.put(key, System.currentTimeMillis() + millis);
+        return 1;
+    }
+
+    private void set(String key, String value) {
+        data.put(key, value);
+        expiries.remove(key);
+    }
+
+    private String string(String key) {
+        return typed(key, String.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, String> hash(String key, boolean create) {
+        Map<String, String> hash = typed(key, Map.class);
+        if (hash == null && create) {
+            hash = new LinkedHashMap<String, String>();
+            data.put(key, hash);
+        }
+        return hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<String> list(String key, boolean create) {
+        List<String> list = typed(key, List.class);
+        if (list == null && create) {
+            list = new ArrayList<String>();
+            data.put(key, list);
+        }
+        return list;
+    }
+
+    private SortedSet sortedSet(String key, boolean create) {
+        SortedSet sortedSet = typed(key, SortedSet.class);
+        if (sortedSet == null && create) {
+            sortedSet = new SortedSet();
+            data.put(key, sortedSet);
+        }
+        return sortedSet;
+    }
+
+    private <T> T typed(String key, Class<T> type) {
+        Object value = lookup(key);
+        if (value != null && !type.isInstance(value)) {
+            throw new RedisError("WRONGTYPE Operation against a key holding the wrong kind of value");
+        }
+        return type.cast(value);
+    }
+
+    // Start and end (exclusive) of an inclusive range of indexes that may count from the end
+    private int[] range(int size, long start, long stop) {
+        if (start < 0) {
+            start = Math.max(size + start, 0);
+        }
+        if (stop < 0) {
+            stop = size + stop;
+        }
+        stop = Math.min(stop, size - 1);
+        if (start > stop) {
+            return new int[] { 0, 0 };
+        }
+        return new int[] { (int) start, (int) stop + 1 };
+    }
+
+    // zrangebyscore key min max and zrevrangebyscore key max min, with optional withscores and limit
+    private List<String> rangeByScore(List<String> args, boolean reversed) {
+        SortedSet sortedSet = sortedSet(args.get(0), false);
+        if (sortedSet == null) {
+            return Collections.emptyList();
+        }
+        double min = parseScore(args.get(reversed ? 2 : 1));
+        double max = parseScore(args.get(reversed ? 1 : 2));
+        boolean withScores = false;
+        int offset = 0;
+        int count = -1;
+        for (int i = 3; i < args.size(); i++) {
+            if (args.get(i).equalsIgnoreCase("withscores")) {
+                withScores = true;
+            } else if (args.get(i).equalsIgnoreCase("limit")) {
+                offset = Integer.parseInt(args.get(++i));
+                count = Integer.parseInt(args.get(++i));
+            }
+        }
+        if (min > max) {
+            return Collections.emptyList();
+        }
+        NavigableSet<ScoredMember> members = sortedSet.members.subSet(
+                new ScoredMember(min, ""), true, new ScoredMember(max, String.valueOf(Character.MAX_VALUE)), true);
+        List<ScoredMember> selected = new ArrayList<ScoredMember>();
+        Iterator<ScoredMember> iterator = reversed ? members.descendingIterator() : members.iterator();
+        for (int i = 0; iterator.hasNext() && (count < 0 || selected.size() < count); i++) {
+            ScoredMember member = iterator.next();
+            if (i >= offset) {
+                selected.add(member);
+            }
+        }
+        return members(selected, withScores);
+    }
+
+    private List<String> members(List<ScoredMember> members, boolean withScores) {
+        List<String> reply = new ArrayList<String>();
+        for (ScoredMember member : members) {
+            reply.add(member.member);
+            if (withScores) {
+                reply.add(formatScore(member.score));
+            }
+        }
+        return reply;
+    }
+
+    private double parseScore(String score) {
+        if (score.equals("+inf") || score.equals("inf")) {
+            return Double.POSITIVE_INFINITY;
+        } else if (score.equals("-inf")) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        return Double.parseDouble(score);
+    }
+
+    // Whole scores without a fraction, like Redis does
+    private String formatScore(double score) {
+        return score == Math.rint(score) && Math.abs(score) < 1e15 ? Long.toString((long) score) : Double.toString(score);
+    }
+
+    // The sha1 of a script as it was received
+    private static String sha1(String source) {
+        try {
+            StringBuilder sha = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(source.getBytes(CHARSET))) {
+                sha.append(String.format("%02x", b));
+            }
+            return sha.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
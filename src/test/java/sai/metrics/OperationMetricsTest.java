@@ -0,0 +1,55 @@
+package sai.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class OperationMetricsTest {
+
+    private final OperationMetrics metrics = new OperationMetrics("test");
+
+    private final OperationMetrics.Call<Void, RuntimeException> succeeding = new OperationMetrics.Call<Void, RuntimeException>() {
+        public Void call() {
+            return null;
+        }
+    };
+
+    private final OperationMetrics.Call<Void, RuntimeException> failing = new OperationMetrics.Call<Void, RuntimeException>() {
+        public Void call() {
+            throw new IllegalStateException();
+        }
+    };
+
+    @Test
+    public void countsCallsErrorsAndBytesOfSucceededCalls() {
+        metrics.time(100, succeeding);
+        try {
+            metrics.time(100, failing);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+        assertEquals(2, metrics.getCount());
+        assertEquals(1, metrics.getErrors());
+        assertEquals(100, metrics.getBytes());
+    }
+
+    @Test
+    public void keepsCountsOfFinishedThreadsWithoutKeepingTheirRecorders() throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    metrics.time(10, succeeding);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(0, metrics.getNumberOfRecorders());
+        assertEquals(50, metrics.getCount());
+        assertEquals(500, metrics.getBytes());
+    }
+
+}